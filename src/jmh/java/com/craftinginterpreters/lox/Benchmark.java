@@ -0,0 +1,97 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Runs a script on the tree-walking Interpreter with each of its optimizations on its own and all of them together,
+ * and reports how long each took and how much it allocated, e.g. with
+ * src/main/resources/scream-scripts/benchmarks/arithmetic.scream.
+ *
+ * The JIT is turned off unless scream.jit.threshold is set, since compiled functions bypass all of them. SPECIALIZED
+ * takes every shortcut Interpreter.specializing switches on, the inline caches and method call fast paths as well as
+ * the specialized nodes.
+ *
+ * It runs a script end to end rather than one pass over and over, so it isn't a JMH benchmark, but it lives with them
+ * to stay out of the jar.
+ */
+public class Benchmark {
+  private static final int DEFAULT_ITERATIONS = 10;
+
+  private enum Mode {
+    BASELINE(false, false),
+    UNBOXED(true, false),
+    SPECIALIZED(false, true),
+    ALL(true, true);
+
+    final boolean unboxedArithmetic;
+    final boolean specializing;
+
+    Mode(boolean unboxedArithmetic, boolean specializing) {
+      this.unboxedArithmetic = unboxedArithmetic;
+      this.specializing = specializing;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.out.println("USAGE: BENCHMARK SCRIPT [ITERATIONS]");
+      System.exit(64);
+    }
+    if (System.getProperty("scream.jit.threshold") == null) {
+      System.setProperty("scream.jit.threshold", "0");
+    }
+    int iterations = args.length == 2 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+
+    byte[] bytes = Files.readAllBytes(Paths.get(args[0]));
+    CompiledScript script = new ScreamEngine(new ScreamContext(), false).compile(new String(bytes,
+      Charset.defaultCharset()));
+    if (script == null) {
+      System.exit(65);
+    }
+    List<Stmt> statements = script.statements;
+
+    // warm every path up so none of them pays for class loading or HotSpot compilation
+    for (Mode mode : Mode.values()) {
+      measure(statements, mode, iterations);
+    }
+    for (Mode mode : Mode.values()) {
+      report(mode.name(), measure(statements, mode, iterations), iterations);
+    }
+  }
+
+  // returns the elapsed nanoseconds and the bytes allocated by this thread
+  private static long[] measure(List<Stmt> statements, Mode mode, int iterations) {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    // whatever the script prints isn't part of what's being measured
+    ScreamContext context = new ScreamContext(new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+    }), System.err);
+
+    long allocated = threads.getThreadAllocatedBytes(thread);
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      Interpreter interpreter = new Interpreter(context);
+      interpreter.unboxedArithmetic = mode.unboxedArithmetic;
+      interpreter.specializing = mode.specializing;
+      interpreter.interpret(statements);
+    }
+    return new long[] {System.nanoTime() - start, threads.getThreadAllocatedBytes(thread) - allocated};
+  }
+
+  private static void report(String name, long[] result, int iterations) {
+    double millis = result[0] / 1e6 / iterations;
+    double megabytes = result[1] / (1024.0 * 1024.0) / iterations;
+    System.out.println(String.format("%-12s %10.2f MS/RUN %10.2f MB/RUN %10.2f MB/S", name, millis, megabytes,
+      megabytes / (millis / 1000.0)));
+  }
+}
@@ -0,0 +1,67 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * The scripts the benchmarks run over, from src/jmh/resources/corpus. Each one leans on a different part of the
+ * language: recursion, loops, string building and classes.
+ */
+final class Corpus {
+  private Corpus() {
+  }
+
+  static String load(String script) throws IOException {
+    try (InputStream in = Corpus.class.getResourceAsStream("/corpus/" + script + ".scream")) {
+      if (in == null) {
+        throw new IOException("NO SCRIPT NAMED '" + script + "' IN THE CORPUS!");
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+        out.write(buffer, 0, read);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  static List<Token> scan(String source) {
+    return new Scanner(source, quiet()).scanTokens();
+  }
+
+  static List<Stmt> parse(String source) {
+    ScreamContext context = quiet();
+    List<Stmt> statements = new Parser(new Scanner(source, context), context).parse();
+    if (context.hadError()) {
+      throw new IllegalStateException("CORPUS SCRIPT FAILED TO PARSE!");
+    }
+    return statements;
+  }
+
+  // the tree a service would run, resolved and folded by the same passes ScreamEngine uses
+  static List<Stmt> compile(String source) {
+    CompiledScript script = new ScreamEngine(quiet(), false).compile(source);
+    if (script == null) {
+      throw new IllegalStateException("CORPUS SCRIPT FAILED TO COMPILE!");
+    }
+    return script.statements;
+  }
+
+  // scripts PRINT as they go, which would otherwise end up mixed in with JMH's output
+  static ScreamContext quiet() {
+    return new ScreamContext(new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    }), System.err);
+  }
+}
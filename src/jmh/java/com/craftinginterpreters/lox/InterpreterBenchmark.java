@@ -0,0 +1,50 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+  @Param({"recursion", "loops", "strings", "classes"})
+  public String script;
+
+  private List<Stmt> statements;
+  private ScreamContext context;
+
+  @Setup
+  public void setUp() throws IOException {
+    statements = Corpus.compile(Corpus.load(script));
+    context = Corpus.quiet();
+  }
+
+  // A fresh Interpreter each time so globals from the last run don't carry over, over the same compiled tree, the way
+  // a service runs a CompiledScript over and over. Each run makes its functions and classes afresh, so this measures
+  // the node caches (see InlineCache and Specialization) specializing again on every run, not one warmed up for good
+  @Benchmark
+  public Object interpret() {
+    Interpreter interpreter = new Interpreter(context);
+    interpreter.interpret(statements);
+    if (context.hadRuntimeError()) {
+      throw new IllegalStateException("CORPUS SCRIPT FAILED TO RUN!");
+    }
+    return interpreter;
+  }
+}
@@ -0,0 +1,42 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+  @Param({"recursion", "loops", "strings", "classes"})
+  public String script;
+
+  private List<Token> tokens;
+  private ScreamContext context;
+
+  @Setup
+  public void setUp() throws IOException {
+    tokens = Corpus.scan(Corpus.load(script));
+    context = Corpus.quiet();
+  }
+
+  @Benchmark
+  public Object parse() {
+    return new Parser(tokens.iterator(), context).parse();
+  }
+}
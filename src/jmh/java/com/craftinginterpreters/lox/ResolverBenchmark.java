@@ -0,0 +1,45 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolverBenchmark {
+  @Param({"recursion", "loops", "strings", "classes"})
+  public String script;
+
+  private List<Stmt> statements;
+  private ScreamContext context;
+
+  @Setup
+  public void setUp() throws IOException {
+    statements = Corpus.parse(Corpus.load(script));
+    context = Corpus.quiet();
+  }
+
+  // resolving stores the same depths and slots on the nodes every time, so the tree can be resolved over and over
+  @Benchmark
+  public Object resolve() {
+    Resolver resolver = new Resolver(context);
+    resolver.resolve(statements);
+    return resolver;
+  }
+}
@@ -0,0 +1,62 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScannerBenchmark {
+  @Param({"recursion", "loops", "strings", "classes"})
+  public String script;
+
+  // the script repeated this many times over, to see how throughput holds up on large inputs
+  @Param({"1", "256"})
+  public int copies;
+
+  private String source;
+  private ScreamContext context;
+
+  @Setup
+  public void setUp() throws IOException {
+    String text = Corpus.load(script);
+    StringBuilder builder = new StringBuilder(text.length() * copies);
+    for (int i = 0; i < copies; i++) {
+      builder.append(text);
+    }
+    source = builder.toString();
+    context = Corpus.quiet();
+  }
+
+  @Benchmark
+  public Object scanTokens() {
+    return new Scanner(source, context).scanTokens();
+  }
+
+  // the way the engine scans, handing tokens off one at a time without collecting them
+  @Benchmark
+  public int streamTokens() {
+    Scanner scanner = new Scanner(source, context);
+    int count = 0;
+    while (scanner.hasNext()) {
+      scanner.next();
+      count++;
+    }
+    return count;
+  }
+}
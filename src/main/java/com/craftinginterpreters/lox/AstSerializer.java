@@ -0,0 +1,483 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a resolved tree out in a compact binary form and reads it back, generated by GenerateAst along with Expr and
+ * Stmt. Everything the Resolver stored on the nodes is kept, the transient caches start out empty again.
+ */
+final class AstSerializer {
+  // changes along with the node definitions, so a tree is never read back into nodes it wasn't written from
+  static final int SCHEMA = 0xc11f875d;
+
+  private final DataOutput out;
+  private final DataInput in;
+  // every string is written once, after that it's referred to by its index
+  private final Map<String, Integer> strings = new HashMap<>();
+  private final List<String> stringTable = new ArrayList<>();
+
+  private AstSerializer(DataOutput out, DataInput in) {
+    this.out = out;
+    this.in = in;
+  }
+
+  static void write(DataOutput out, List<Stmt> statements) throws IOException {
+    new AstSerializer(out, null).writeStmts(statements);
+  }
+
+  static List<Stmt> read(DataInput in) throws IOException {
+    return new AstSerializer(null, in).readStmts(Stmt.class);
+  }
+
+  private void writeExpr(Expr expr) throws IOException {
+    if (expr == null) {
+      out.writeByte(0);
+    } else if (expr instanceof Expr.Assign) {
+      Expr.Assign node = (Expr.Assign)expr;
+      out.writeByte(1);
+      writeToken(node.name);
+      writeExpr(node.value);
+      writeVarInt(node.depth);
+      writeVarInt(node.slot);
+      out.writeBoolean(node.onStack);
+    } else if (expr instanceof Expr.Binary) {
+      Expr.Binary node = (Expr.Binary)expr;
+      out.writeByte(2);
+      writeExpr(node.left);
+      writeToken(node.operator);
+      writeExpr(node.right);
+      out.writeBoolean(node.numeric);
+    } else if (expr instanceof Expr.Call) {
+      Expr.Call node = (Expr.Call)expr;
+      out.writeByte(3);
+      writeExpr(node.callee);
+      writeToken(node.paren);
+      writeExprs(node.arguments);
+    } else if (expr instanceof Expr.Get) {
+      Expr.Get node = (Expr.Get)expr;
+      out.writeByte(4);
+      writeExpr(node.object);
+      writeToken(node.name);
+    } else if (expr instanceof Expr.Grouping) {
+      Expr.Grouping node = (Expr.Grouping)expr;
+      out.writeByte(5);
+      writeExpr(node.expression);
+      out.writeBoolean(node.numeric);
+    } else if (expr instanceof Expr.Literal) {
+      Expr.Literal node = (Expr.Literal)expr;
+      out.writeByte(6);
+      writeValue(node.value);
+    } else if (expr instanceof Expr.Set) {
+      Expr.Set node = (Expr.Set)expr;
+      out.writeByte(7);
+      writeExpr(node.object);
+      writeToken(node.name);
+      writeExpr(node.value);
+    } else if (expr instanceof Expr.Super) {
+      Expr.Super node = (Expr.Super)expr;
+      out.writeByte(8);
+      writeToken(node.keyword);
+      writeToken(node.method);
+      writeVarInt(node.depth);
+    } else if (expr instanceof Expr.This) {
+      Expr.This node = (Expr.This)expr;
+      out.writeByte(9);
+      writeToken(node.keyword);
+      writeVarInt(node.depth);
+      writeVarInt(node.slot);
+    } else if (expr instanceof Expr.Unary) {
+      Expr.Unary node = (Expr.Unary)expr;
+      out.writeByte(10);
+      writeToken(node.operator);
+      writeExpr(node.right);
+      out.writeBoolean(node.numeric);
+    } else if (expr instanceof Expr.Logical) {
+      Expr.Logical node = (Expr.Logical)expr;
+      out.writeByte(11);
+      writeExpr(node.left);
+      writeToken(node.operator);
+      writeExpr(node.right);
+    } else if (expr instanceof Expr.Variable) {
+      Expr.Variable node = (Expr.Variable)expr;
+      out.writeByte(12);
+      writeToken(node.name);
+      writeVarInt(node.depth);
+      writeVarInt(node.slot);
+      out.writeBoolean(node.onStack);
+    } else {
+      throw new IOException("UNKNOWN NODE!");
+    }
+  }
+
+  private Expr readExpr() throws IOException {
+    byte tag = in.readByte();
+    switch (tag) {
+      case 0:
+        return null;
+      case 1: {
+        Expr.Assign node = new Expr.Assign(readToken(), readExpr());
+        node.depth = readVarInt();
+        node.slot = readVarInt();
+        node.onStack = in.readBoolean();
+        return node;
+      }
+      case 2: {
+        Expr.Binary node = new Expr.Binary(readExpr(), readToken(), readExpr());
+        node.numeric = in.readBoolean();
+        return node;
+      }
+      case 3: {
+        Expr.Call node = new Expr.Call(readExpr(), readToken(), readExprs());
+        return node;
+      }
+      case 4: {
+        Expr.Get node = new Expr.Get(readExpr(), readToken());
+        return node;
+      }
+      case 5: {
+        Expr.Grouping node = new Expr.Grouping(readExpr());
+        node.numeric = in.readBoolean();
+        return node;
+      }
+      case 6: {
+        Expr.Literal node = new Expr.Literal(readValue());
+        return node;
+      }
+      case 7: {
+        Expr.Set node = new Expr.Set(readExpr(), readToken(), readExpr());
+        return node;
+      }
+      case 8: {
+        Expr.Super node = new Expr.Super(readToken(), readToken());
+        node.depth = readVarInt();
+        return node;
+      }
+      case 9: {
+        Expr.This node = new Expr.This(readToken());
+        node.depth = readVarInt();
+        node.slot = readVarInt();
+        return node;
+      }
+      case 10: {
+        Expr.Unary node = new Expr.Unary(readToken(), readExpr());
+        node.numeric = in.readBoolean();
+        return node;
+      }
+      case 11: {
+        Expr.Logical node = new Expr.Logical(readExpr(), readToken(), readExpr());
+        return node;
+      }
+      case 12: {
+        Expr.Variable node = new Expr.Variable(readToken());
+        node.depth = readVarInt();
+        node.slot = readVarInt();
+        node.onStack = in.readBoolean();
+        return node;
+      }
+      default:
+        throw new IOException("UNKNOWN NODE!");
+    }
+  }
+
+  private void writeStmt(Stmt stmt) throws IOException {
+    if (stmt == null) {
+      out.writeByte(0);
+    } else if (stmt instanceof Stmt.Block) {
+      Stmt.Block node = (Stmt.Block)stmt;
+      out.writeByte(1);
+      writeStmts(node.statements);
+      out.writeBoolean(node.scoped);
+      out.writeBoolean(node.captured);
+    } else if (stmt instanceof Stmt.Class) {
+      Stmt.Class node = (Stmt.Class)stmt;
+      out.writeByte(2);
+      writeToken(node.name);
+      writeExpr(node.superclass);
+      writeStmts(node.methods);
+      writeVarInt(node.slot);
+    } else if (stmt instanceof Stmt.Expression) {
+      Stmt.Expression node = (Stmt.Expression)stmt;
+      out.writeByte(3);
+      writeExpr(node.expression);
+    } else if (stmt instanceof Stmt.For) {
+      Stmt.For node = (Stmt.For)stmt;
+      out.writeByte(4);
+      writeStmt(node.initializer);
+      writeExpr(node.condition);
+      writeExpr(node.increment);
+      writeStmt(node.body);
+      out.writeBoolean(node.scoped);
+    } else if (stmt instanceof Stmt.Function) {
+      Stmt.Function node = (Stmt.Function)stmt;
+      out.writeByte(5);
+      writeToken(node.name);
+      writeTokens(node.params);
+      writeStmts(node.body);
+      writeVarInt(node.slot);
+      writeVarInt(node.frameSize);
+      out.writeBoolean(node.scoped);
+      writeBooleans(node.capturedParams);
+    } else if (stmt instanceof Stmt.If) {
+      Stmt.If node = (Stmt.If)stmt;
+      out.writeByte(6);
+      writeExpr(node.condition);
+      writeStmt(node.thenBranch);
+      writeStmt(node.elseBranch);
+    } else if (stmt instanceof Stmt.Print) {
+      Stmt.Print node = (Stmt.Print)stmt;
+      out.writeByte(7);
+      writeToken(node.keyword);
+      writeExpr(node.expression);
+    } else if (stmt instanceof Stmt.Return) {
+      Stmt.Return node = (Stmt.Return)stmt;
+      out.writeByte(8);
+      writeToken(node.keyword);
+      writeExpr(node.value);
+    } else if (stmt instanceof Stmt.Var) {
+      Stmt.Var node = (Stmt.Var)stmt;
+      out.writeByte(9);
+      writeToken(node.name);
+      writeExpr(node.initializer);
+      writeVarInt(node.slot);
+    } else if (stmt instanceof Stmt.While) {
+      Stmt.While node = (Stmt.While)stmt;
+      out.writeByte(10);
+      writeExpr(node.condition);
+      writeStmt(node.body);
+    } else {
+      throw new IOException("UNKNOWN NODE!");
+    }
+  }
+
+  private Stmt readStmt() throws IOException {
+    byte tag = in.readByte();
+    switch (tag) {
+      case 0:
+        return null;
+      case 1: {
+        Stmt.Block node = new Stmt.Block(readStmts(Stmt.class));
+        node.scoped = in.readBoolean();
+        node.captured = in.readBoolean();
+        return node;
+      }
+      case 2: {
+        Stmt.Class node = new Stmt.Class(readToken(), (Expr.Variable)readExpr(), readStmts(Stmt.Function.class));
+        node.slot = readVarInt();
+        return node;
+      }
+      case 3: {
+        Stmt.Expression node = new Stmt.Expression(readExpr());
+        return node;
+      }
+      case 4: {
+        Stmt.For node = new Stmt.For(readStmt(), readExpr(), readExpr(), readStmt());
+        node.scoped = in.readBoolean();
+        return node;
+      }
+      case 5: {
+        Stmt.Function node = new Stmt.Function(readToken(), readTokens(), readStmts(Stmt.class));
+        node.slot = readVarInt();
+        node.frameSize = readVarInt();
+        node.scoped = in.readBoolean();
+        node.capturedParams = readBooleans();
+        return node;
+      }
+      case 6: {
+        Stmt.If node = new Stmt.If(readExpr(), readStmt(), readStmt());
+        return node;
+      }
+      case 7: {
+        Stmt.Print node = new Stmt.Print(readToken(), readExpr());
+        return node;
+      }
+      case 8: {
+        Stmt.Return node = new Stmt.Return(readToken(), readExpr());
+        return node;
+      }
+      case 9: {
+        Stmt.Var node = new Stmt.Var(readToken(), readExpr());
+        node.slot = readVarInt();
+        return node;
+      }
+      case 10: {
+        Stmt.While node = new Stmt.While(readExpr(), readStmt());
+        return node;
+      }
+      default:
+        throw new IOException("UNKNOWN NODE!");
+    }
+  }
+
+  private void writeExprs(List<Expr> exprs) throws IOException {
+    writeVarInt(exprs.size());
+    for (Expr expr : exprs) {
+      writeExpr(expr);
+    }
+  }
+
+  private List<Expr> readExprs() throws IOException {
+    int size = readVarInt();
+    List<Expr> exprs = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      exprs.add(readExpr());
+    }
+    return exprs;
+  }
+
+  private void writeStmts(List<? extends Stmt> stmts) throws IOException {
+    writeVarInt(stmts.size());
+    for (Stmt stmt : stmts) {
+      writeStmt(stmt);
+    }
+  }
+
+  private <T extends Stmt> List<T> readStmts(Class<T> type) throws IOException {
+    int size = readVarInt();
+    List<T> stmts = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      stmts.add(type.cast(readStmt()));
+    }
+    return stmts;
+  }
+
+  private void writeTokens(List<Token> tokens) throws IOException {
+    writeVarInt(tokens.size());
+    for (Token token : tokens) {
+      writeToken(token);
+    }
+  }
+
+  private List<Token> readTokens() throws IOException {
+    int size = readVarInt();
+    List<Token> tokens = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      tokens.add(readToken());
+    }
+    return tokens;
+  }
+
+  // token types are written by name, so reordering TokenType doesn't break trees that were already written
+  private void writeToken(Token token) throws IOException {
+    writeString(token.type.name());
+    writeString(token.lexeme);
+    writeValue(token.literal);
+    writeVarInt(token.line);
+  }
+
+  private Token readToken() throws IOException {
+    TokenType type;
+    try {
+      type = TokenType.valueOf(readString());
+    } catch (IllegalArgumentException e) {
+      throw new IOException("UNKNOWN TOKEN TYPE!", e);
+    }
+    return new Token(type, readString(), readValue(), readVarInt());
+  }
+
+  private void writeValue(Object value) throws IOException {
+    if (value == null) {
+      out.writeByte(0);
+    } else if (value instanceof Double) {
+      out.writeByte(1);
+      out.writeDouble((Double)value);
+    } else if (value instanceof String) {
+      out.writeByte(2);
+      writeString((String)value);
+    } else if (value instanceof Boolean) {
+      out.writeByte(3);
+      out.writeBoolean((Boolean)value);
+    } else {
+      throw new IOException("CANNOT WRITE A " + value.getClass().getSimpleName() + "!");
+    }
+  }
+
+  private Object readValue() throws IOException {
+    switch (in.readByte()) {
+      case 0:
+        return null;
+      case 1:
+        return in.readDouble();
+      case 2:
+        return readString();
+      case 3:
+        return in.readBoolean();
+      default:
+        throw new IOException("UNKNOWN VALUE!");
+    }
+  }
+
+  private void writeString(String string) throws IOException {
+    Integer index = strings.get(string);
+    if (index != null) {
+      writeVarInt(index);
+      return;
+    }
+    writeVarInt(-1);
+    out.writeUTF(string);
+    strings.put(string, strings.size());
+  }
+
+  private String readString() throws IOException {
+    int index = readVarInt();
+    if (index < 0) {
+      String string = in.readUTF();
+      stringTable.add(string);
+      return string;
+    }
+    if (index >= stringTable.size()) {
+      throw new IOException("UNKNOWN STRING!");
+    }
+    return stringTable.get(index);
+  }
+
+  private void writeBooleans(boolean[] values) throws IOException {
+    if (values == null) {
+      writeVarInt(-1);
+      return;
+    }
+    writeVarInt(values.length);
+    for (boolean value : values) {
+      out.writeBoolean(value);
+    }
+  }
+
+  private boolean[] readBooleans() throws IOException {
+    int length = readVarInt();
+    if (length < 0) {
+      return null;
+    }
+    boolean[] values = new boolean[length];
+    for (int i = 0; i < length; i++) {
+      values[i] = in.readBoolean();
+    }
+    return values;
+  }
+
+  // most ints are small, and some are -1, so they're zigzag encoded seven bits at a time
+  private void writeVarInt(int value) throws IOException {
+    int bits = (value << 1) ^ (value >> 31);
+    while ((bits & ~0x7f) != 0) {
+      out.writeByte((bits & 0x7f) | 0x80);
+      bits >>>= 7;
+    }
+    out.writeByte(bits);
+  }
+
+  private int readVarInt() throws IOException {
+    int bits = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      byte b = in.readByte();
+      bits |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return (bits >>> 1) ^ -(bits & 1);
+      }
+    }
+    throw new IOException("MALFORMED INT!");
+  }
+}
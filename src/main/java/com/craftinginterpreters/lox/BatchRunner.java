@@ -0,0 +1,124 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs independent scripts in parallel on a thread pool, each on a ScreamEngine of its own, e.g. with
+ * --threads=4 a.scream b.scream c.scream
+ *
+ * Each script's output is held on to until it's done and written out in the order the scripts were given, so the
+ * output of one script never interleaves with another's.
+ */
+public class BatchRunner {
+  // what one script printed, and how it ended
+  private static final class Result {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final ByteArrayOutputStream err = new ByteArrayOutputStream();
+    int status;
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    boolean useVm = false;
+    ScriptCache cache = null;
+    List<String> paths = new ArrayList<>();
+    for (String arg : args) {
+      if (arg.startsWith("--threads=")) {
+        threads = parseThreads(arg.substring("--threads=".length()));
+      } else if (arg.equals("--engine=vm")) {
+        useVm = true;
+      } else if (arg.equals("--engine=tree")) {
+        useVm = false;
+      } else if (arg.startsWith("--cache=")) {
+        cache = new ScriptCache(Paths.get(arg.substring("--cache=".length())));
+      } else if (arg.startsWith("--")) {
+        usage();
+      } else {
+        paths.add(arg);
+      }
+    }
+    if (paths.isEmpty()) {
+      usage();
+    }
+
+    List<String> sources = new ArrayList<>();
+    for (String path : paths) {
+      sources.add(new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset()));
+    }
+
+    long start = System.nanoTime();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Future<Result>> futures = new ArrayList<>();
+    for (String source : sources) {
+      boolean vm = useVm;
+      ScriptCache scriptCache = cache;
+      futures.add(pool.submit(() -> run(source, vm, scriptCache)));
+    }
+    pool.shutdown();
+
+    boolean hadError = false;
+    boolean hadRuntimeError = false;
+    for (int i = 0; i < futures.size(); i++) {
+      Result result;
+      try {
+        result = futures.get(i).get();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("SCRIPT " + paths.get(i) + " CRASHED!", e.getCause());
+      }
+      System.out.println("== " + paths.get(i) + " ==");
+      System.out.flush();
+      result.out.writeTo(System.out);
+      System.out.flush();
+      result.err.writeTo(System.err);
+      System.err.flush();
+      hadError |= result.status == 65;
+      hadRuntimeError |= result.status == 70;
+    }
+    System.err.println(String.format("RAN %d SCRIPTS ON %d THREADS IN %.2f MS", paths.size(), threads,
+      (System.nanoTime() - start) / 1e6));
+
+    if (hadError) {
+      System.exit(65);
+    }
+    if (hadRuntimeError) {
+      System.exit(70);
+    }
+  }
+
+  private static Result run(String source, boolean useVm, ScriptCache cache) {
+    Result result = new Result();
+    ScreamContext context = new ScreamContext(new PrintStream(result.out, true), new PrintStream(result.err, true));
+    new ScreamEngine(context, useVm).run(source, cache);
+    result.status = Lox.exitCode(context);
+    return result;
+  }
+
+  private static int parseThreads(String count) {
+    try {
+      int threads = Integer.parseInt(count);
+      if (threads > 0) {
+        return threads;
+      }
+    } catch (NumberFormatException e) {
+      // falls through to the usage message
+    }
+    usage();
+    return 0;
+  }
+
+  private static void usage() {
+    System.out.println("USAGE: BATCHRUNNER [--THREADS=N] [--ENGINE=TREE|VM] [--CACHE=DIR] SCRIPT...");
+    System.exit(64);
+  }
+}
@@ -0,0 +1,457 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+import com.craftinginterpreters.lox.vm.Chunk;
+import com.craftinginterpreters.lox.vm.OpCode;
+import com.craftinginterpreters.lox.vm.VmFunction;
+
+/**
+ * Compiles a resolved tree into bytecode for the {@link com.craftinginterpreters.lox.vm.VM}. Scopes are laid out
+ * exactly the way the Interpreter lays out its Environments, so locals are addressed by the (depth, slot) pairs the
+ * Resolver already stored on the tree. Locals it gave a frame slot instead live in the call's frame on the operand stack.
+ */
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private final ScreamContext context;
+  private VmFunction function;
+  // zero while compiling top level code, where declarations are globals
+  private int scopeDepth = 0;
+  // the line of the last token we saw, for instructions whose node doesn't carry a token (and can't fail)
+  private int line = 1;
+
+  BytecodeCompiler(ScreamContext context) {
+    this.context = context;
+  }
+
+  VmFunction compile(List<Stmt> statements) {
+    function = new VmFunction("SCRIPT", 0, 0, 0, null, false);
+    for (Stmt statement : statements) {
+      compile(statement);
+    }
+    emit(OpCode.NIL, line);
+    emit(OpCode.RETURN, line);
+    return function;
+  }
+
+  private void compile(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  private void compile(Expr expr) {
+    expr.accept(this);
+  }
+
+  private VmFunction compileFunction(Stmt.Function declaration, boolean isInitializer) {
+    VmFunction enclosing = function;
+    int enclosingDepth = scopeDepth;
+
+    // captured parameters take the first slots of the function's scope, the body's declarations follow them
+    int localCount = declaration.scoped ? declaration.params.size() + countDeclarations(declaration.body) : 0;
+    function = new VmFunction(declaration.name.lexeme, declaration.params.size(), localCount, declaration.frameSize,
+      declaration.capturedParams, isInitializer);
+    scopeDepth = 1;
+    for (Stmt statement : declaration.body) {
+      compile(statement);
+    }
+    emit(OpCode.NIL, declaration.name.line);
+    emit(OpCode.RETURN, declaration.name.line);
+
+    VmFunction compiled = function;
+    function = enclosing;
+    scopeDepth = enclosingDepth;
+    return compiled;
+  }
+
+  // the number of slots a scope needs up front, anything declared directly in it
+  private int countDeclarations(List<Stmt> statements) {
+    int count = 0;
+    for (Stmt statement : statements) {
+      if (statement instanceof Stmt.Var || statement instanceof Stmt.Function || statement instanceof Stmt.Class) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private Chunk chunk() {
+    return function.chunk();
+  }
+
+  private void emit(byte op, int line) {
+    this.line = line;
+    chunk().write(op, line);
+  }
+
+  private void emit(byte op, int operand, int line) {
+    emit(op, line);
+    chunk().writeShort(operand, line);
+  }
+
+  private void emitConstant(byte op, Object value, int line) {
+    int constant = chunk().addConstant(value);
+    if (constant > 0xffff) {
+      context.error(line, "TOO MANY CONSTANTS IN ONE CHUNK!");
+    }
+    emit(op, constant, line);
+  }
+
+  private int emitJump(byte op, int line) {
+    emit(op, 0xffff, line);
+    return chunk().count() - 2;
+  }
+
+  private void patchJump(int offset, int line) {
+    // -2 to account for the jump offset itself
+    int jump = chunk().count() - offset - 2;
+    if (jump > 0xffff) {
+      context.error(line, "TOO MUCH CODE TO JUMP OVER!");
+    }
+    chunk().patchShort(offset, jump);
+  }
+
+  private void emitLoop(int loopStart, int line) {
+    // +3 to also jump back over the LOOP instruction and its operand
+    int offset = chunk().count() - loopStart + 3;
+    if (offset > 0xffff) {
+      context.error(line, "LOOP BODY TOO LARGE!");
+    }
+    emit(OpCode.LOOP, offset, line);
+  }
+
+  private void define(Token name, int slot) {
+    if (slot >= 0) {
+      emit(OpCode.DEFINE_FRAME, slot, name.line);
+    } else if (scopeDepth == 0) {
+      emitConstant(OpCode.DEFINE_GLOBAL, name.lexeme, name.line);
+    } else {
+      emit(OpCode.DEFINE_LOCAL, name.line);
+    }
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    // the Resolver leaves blocks without a scope if they declare nothing, or nothing a closure captures
+    if (!stmt.scoped) {
+      for (Stmt statement : stmt.statements) {
+        compile(statement);
+      }
+      return null;
+    }
+
+    emit(OpCode.PUSH_SCOPE, countDeclarations(stmt.statements), line);
+    scopeDepth++;
+    for (Stmt statement : stmt.statements) {
+      compile(statement);
+    }
+    scopeDepth--;
+    emit(OpCode.POP_SCOPE, line);
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    line = stmt.name.line;
+    if (stmt.superclass != null) {
+      // same layout as the Interpreter, 'super' gets a scope of its own that the methods close over
+      compile(stmt.superclass);
+      emit(OpCode.CHECK_SUPERCLASS, stmt.superclass.name.line);
+      emit(OpCode.PUSH_SCOPE, 1, line);
+      emit(OpCode.DEFINE_LOCAL, line);
+      scopeDepth++;
+      emitLocal(OpCode.GET_LOCAL, 0, 0, line);
+    }
+
+    emitConstant(OpCode.CLASS, stmt.name.lexeme, line);
+    chunk().write((byte)(stmt.superclass != null ? 1 : 0), line);
+
+    for (Stmt.Function method : stmt.methods) {
+      emitConstant(OpCode.CLOSURE, compileFunction(method, method.name.lexeme.equals("INIT")), method.name.line);
+      emitConstant(OpCode.METHOD, method.name.lexeme, method.name.line);
+    }
+
+    if (stmt.superclass != null) {
+      scopeDepth--;
+      emit(OpCode.POP_SCOPE, line);
+    }
+
+    define(stmt.name, stmt.slot);
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    compile(stmt.expression);
+    emit(OpCode.POP, line);
+    return null;
+  }
+
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    if (stmt.scoped) {
+      emit(OpCode.PUSH_SCOPE, 1, line);
+      scopeDepth++;
+    }
+    if (stmt.initializer != null) {
+      compile(stmt.initializer);
+    }
+
+    int loopStart = chunk().count();
+    compile(stmt.condition);
+    int exitJump = emitJump(OpCode.JUMP_IF_FALSE, line);
+    emit(OpCode.POP, line);
+    compile(stmt.body);
+    if (stmt.increment != null) {
+      compile(stmt.increment);
+      emit(OpCode.POP, line);
+    }
+    emitLoop(loopStart, line);
+
+    patchJump(exitJump, line);
+    emit(OpCode.POP, line);
+    if (stmt.scoped) {
+      scopeDepth--;
+      emit(OpCode.POP_SCOPE, line);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    // function declarations are never initializers
+    emitConstant(OpCode.CLOSURE, compileFunction(stmt, false), stmt.name.line);
+    define(stmt.name, stmt.slot);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    compile(stmt.condition);
+
+    int elseJump = emitJump(OpCode.JUMP_IF_FALSE, line);
+    emit(OpCode.POP, line);
+    compile(stmt.thenBranch);
+    int endJump = emitJump(OpCode.JUMP, line);
+
+    patchJump(elseJump, line);
+    emit(OpCode.POP, line);
+    if (stmt.elseBranch != null) {
+      compile(stmt.elseBranch);
+    }
+    patchJump(endJump, line);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    compile(stmt.expression);
+    emit(OpCode.PRINT, line);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value != null) {
+      compile(stmt.value);
+    } else {
+      emit(OpCode.NIL, stmt.keyword.line);
+    }
+    emit(OpCode.RETURN, stmt.keyword.line);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer != null) {
+      compile(stmt.initializer);
+    } else {
+      emit(OpCode.NIL, stmt.name.line);
+    }
+    define(stmt.name, stmt.slot);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    int loopStart = chunk().count();
+    compile(stmt.condition);
+
+    int exitJump = emitJump(OpCode.JUMP_IF_FALSE, line);
+    emit(OpCode.POP, line);
+    compile(stmt.body);
+    emitLoop(loopStart, line);
+
+    patchJump(exitJump, line);
+    emit(OpCode.POP, line);
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    compile(expr.value);
+    if (expr.onStack) {
+      emit(OpCode.SET_FRAME, expr.slot, expr.name.line);
+    } else if (expr.depth >= 0) {
+      emitLocal(OpCode.SET_LOCAL, expr.depth, expr.slot, expr.name.line);
+    } else {
+      emitConstant(OpCode.SET_GLOBAL, expr.name.lexeme, expr.name.line);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    compile(expr.left);
+    compile(expr.right);
+
+    line = expr.operator.line;
+    switch (expr.operator.type) {
+      case GREATER:
+        emit(OpCode.GREATER, line);
+        break;
+      case GREATER_EQUAL:
+        emit(OpCode.GREATER_EQUAL, line);
+        break;
+      case LESS:
+        emit(OpCode.LESS, line);
+        break;
+      case LESS_EQUAL:
+        emit(OpCode.LESS_EQUAL, line);
+        break;
+      case MINUS:
+        emit(OpCode.SUBTRACT, line);
+        break;
+      case SLASH:
+        emit(OpCode.DIVIDE, line);
+        break;
+      case PLUS:
+        emit(OpCode.ADD, line);
+        break;
+      case STAR:
+        emit(OpCode.MULTIPLY, line);
+        break;
+      case BANG_EQUAL:
+        emit(OpCode.NOT_EQUAL, line);
+        break;
+      default:
+        // the Interpreter has no case for any other operator (EQUAL_EQUAL included), both sides are evaluated and
+        // the expression comes out as nil
+        emit(OpCode.POP, line);
+        emit(OpCode.POP, line);
+        emit(OpCode.NIL, line);
+        break;
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    compile(expr.callee);
+    for (Expr argument : expr.arguments) {
+      compile(argument);
+    }
+    emit(OpCode.CALL, expr.paren.line);
+    chunk().write((byte)expr.arguments.size(), expr.paren.line);
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    compile(expr.object);
+    emitConstant(OpCode.GET_PROPERTY, expr.name.lexeme, expr.name.line);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    compile(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value == null) {
+      emit(OpCode.NIL, line);
+    } else if (expr.value.equals(true)) {
+      emit(OpCode.TRUE, line);
+    } else if (expr.value.equals(false)) {
+      emit(OpCode.FALSE, line);
+    } else {
+      emitConstant(OpCode.CONSTANT, expr.value, line);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    // the object is checked before the value is evaluated, same as the Interpreter
+    compile(expr.object);
+    emit(OpCode.CHECK_FIELDS, expr.name.line);
+    compile(expr.value);
+    emitConstant(OpCode.SET_PROPERTY, expr.name.lexeme, expr.name.line);
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    // 'this' is always one level nearer than 'super', both are alone in their scopes
+    emitLocal(OpCode.GET_LOCAL, expr.depth - 1, 0, expr.keyword.line);
+    emitLocal(OpCode.GET_LOCAL, expr.depth, 0, expr.keyword.line);
+    emitConstant(OpCode.GET_SUPER, expr.method.lexeme, expr.method.line);
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    emitLocal(OpCode.GET_LOCAL, expr.depth, expr.slot, expr.keyword.line);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    compile(expr.right);
+    if (expr.operator.type == TokenType.BANG) {
+      emit(OpCode.BANG, expr.operator.line);
+    } else {
+      emit(OpCode.NEGATE, expr.operator.line);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    compile(expr.left);
+    line = expr.operator.line;
+
+    if (expr.operator.type == TokenType.OR) {
+      int elseJump = emitJump(OpCode.JUMP_IF_FALSE, line);
+      int endJump = emitJump(OpCode.JUMP, line);
+      patchJump(elseJump, line);
+      emit(OpCode.POP, line);
+      compile(expr.right);
+      patchJump(endJump, line);
+    } else {
+      int endJump = emitJump(OpCode.JUMP_IF_FALSE, line);
+      emit(OpCode.POP, line);
+      compile(expr.right);
+      patchJump(endJump, line);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    if (expr.onStack) {
+      emit(OpCode.GET_FRAME, expr.slot, expr.name.line);
+    } else if (expr.depth >= 0) {
+      emitLocal(OpCode.GET_LOCAL, expr.depth, expr.slot, expr.name.line);
+    } else {
+      emitConstant(OpCode.GET_GLOBAL, expr.name.lexeme, expr.name.line);
+    }
+    return null;
+  }
+
+  private void emitLocal(byte op, int depth, int slot, int line) {
+    emit(op, depth, line);
+    chunk().writeShort(slot, line);
+  }
+}
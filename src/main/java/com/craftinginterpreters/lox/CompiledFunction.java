@@ -0,0 +1,30 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// A function body the JIT turned into a JVM class, along with the assumptions it was compiled under
+final class CompiledFunction {
+  private final JitCode code;
+  private final Object[] constants;
+  // parameters the compiled code keeps as unboxed doubles, its type guard
+  private final boolean[] numericParams;
+
+  CompiledFunction(JitCode code, Object[] constants, boolean[] numericParams) {
+    this.code = code;
+    this.constants = constants;
+    this.numericParams = numericParams;
+  }
+
+  boolean accepts(List<Object> arguments) {
+    for (int i = 0; i < numericParams.length; i++) {
+      if (numericParams[i] && !(arguments.get(i) instanceof Double)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  Object invoke(Interpreter interpreter, Environment closure, List<Object> arguments) {
+    return code.invoke(interpreter, closure, arguments.toArray(), constants);
+  }
+}
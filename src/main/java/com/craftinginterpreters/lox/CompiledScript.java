@@ -0,0 +1,27 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.craftinginterpreters.lox.vm.VmFunction;
+
+/**
+ * A script that has already been scanned, parsed and resolved, made by {@link ScreamEngine#compile}, so running it
+ * again only costs its execution.
+ *
+ * Compiled scripts are immutable and can be run by any number of engines at once, on any threads. The only things
+ * that change as a script runs are the caches on its nodes (see InlineCache and Specialization). Every run makes its
+ * functions and classes afresh, so the caches remember which run filled them in, and make way for the run after it
+ * rather than filling up with what can never be hit again. Runs going on at the same time share them, and can replace
+ * each other's entries, which costs misses but never gives a wrong result.
+ */
+public final class CompiledScript {
+  final List<Stmt> statements;
+  // only compiled by engines that run on the bytecode VM
+  final VmFunction bytecode;
+
+  CompiledScript(List<Stmt> statements, VmFunction bytecode) {
+    this.statements = Collections.unmodifiableList(statements);
+    this.bytecode = bytecode;
+  }
+}
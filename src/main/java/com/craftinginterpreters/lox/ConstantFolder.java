@@ -0,0 +1,272 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pass over the resolved tree, before it runs, that works out operators whose operands are all literals and drops
+ * the branches and loops that can never run. Scripts generated from templates are full of both.
+ *
+ * Operators are worked out by an Interpreter, so they come out exactly as they would at runtime. One that would fail,
+ * such as a division by zero, is left in place to fail at runtime with its error on its own line.
+ */
+final class ConstantFolder implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+  private final Interpreter interpreter;
+
+  ConstantFolder(ScreamContext context) {
+    this.interpreter = new Interpreter(context);
+  }
+
+  /**
+   * Folds the statements in place, removing those that are left with nothing to do.
+   */
+  void fold(List<Stmt> statements) {
+    int i = 0;
+    while (i < statements.size()) {
+      Stmt folded = fold(statements.get(i));
+      if (folded == null) {
+        statements.remove(i);
+      } else {
+        statements.set(i++, folded);
+      }
+    }
+  }
+
+  /**
+   * @return the statement to run in its place, or null if nothing needs to run
+   */
+  private Stmt fold(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  // for where the grammar needs a statement, such as the body of a loop
+  private Stmt foldBody(Stmt stmt) {
+    Stmt folded = fold(stmt);
+    if (folded == null) {
+      Stmt.Block empty = new Stmt.Block(new ArrayList<>());
+      empty.scoped = false;
+      return empty;
+    }
+    return folded;
+  }
+
+  private Expr fold(Expr expr) {
+    return expr.accept(this);
+  }
+
+  // works an operator out over literal operands, unless it would throw a RuntimeError
+  private Expr evaluate(Expr expr) {
+    try {
+      Object value = expr.accept(interpreter);
+      // literals are Strings, for the JIT and the cache
+      if (value instanceof Rope) {
+        value = value.toString();
+      }
+      return new Expr.Literal(value);
+    } catch (RuntimeError error) {
+      return expr;
+    }
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    fold(stmt.statements);
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitClassStmt(Stmt.Class stmt) {
+    for (Stmt.Function method : stmt.methods) {
+      fold(method);
+    }
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    stmt.expression = fold(stmt.expression);
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitForStmt(Stmt.For stmt) {
+    if (stmt.initializer != null) {
+      stmt.initializer = fold(stmt.initializer);
+    }
+    if (stmt.condition != null) {
+      stmt.condition = fold(stmt.condition);
+      if (stmt.condition instanceof Expr.Literal && !Interpreter.isTruthy(((Expr.Literal)stmt.condition).value)) {
+        return initializerOnly(stmt);
+      }
+    }
+    if (stmt.increment != null) {
+      stmt.increment = fold(stmt.increment);
+    }
+    stmt.body = foldBody(stmt.body);
+    return stmt;
+  }
+
+  // What's left of a FOR that never loops, the initializer still runs once. A variable it declares is in the loop's
+  // scope, where nothing can see it any more, so only its value needs working out. When a closure captures the
+  // variable the loop has an Environment of its own, which the initializer was resolved against, so it keeps one by
+  // way of a block.
+  private static Stmt initializerOnly(Stmt.For stmt) {
+    Stmt initializer = stmt.initializer;
+    if (stmt.scoped) {
+      List<Stmt> statements = new ArrayList<>();
+      statements.add(initializer);
+      return new Stmt.Block(statements);
+    }
+    if (initializer instanceof Stmt.Var) {
+      Expr value = ((Stmt.Var)initializer).initializer;
+      return value == null || value instanceof Expr.Literal ? null : new Stmt.Expression(value);
+    }
+    return initializer;
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    fold(stmt.body);
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    stmt.condition = fold(stmt.condition);
+    if (stmt.condition instanceof Expr.Literal) {
+      if (Interpreter.isTruthy(((Expr.Literal)stmt.condition).value)) {
+        return fold(stmt.thenBranch);
+      }
+      return stmt.elseBranch == null ? null : fold(stmt.elseBranch);
+    }
+
+    stmt.thenBranch = foldBody(stmt.thenBranch);
+    if (stmt.elseBranch != null) {
+      stmt.elseBranch = fold(stmt.elseBranch);
+    }
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    stmt.expression = fold(stmt.expression);
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value != null) {
+      stmt.value = fold(stmt.value);
+    }
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer != null) {
+      stmt.initializer = fold(stmt.initializer);
+    }
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    stmt.condition = fold(stmt.condition);
+    if (stmt.condition instanceof Expr.Literal && !Interpreter.isTruthy(((Expr.Literal)stmt.condition).value)) {
+      return null;
+    }
+    stmt.body = foldBody(stmt.body);
+    return stmt;
+  }
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    expr.value = fold(expr.value);
+    return expr;
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    expr.left = fold(expr.left);
+    expr.right = fold(expr.right);
+    if (expr.left instanceof Expr.Literal && expr.right instanceof Expr.Literal) {
+      return evaluate(expr);
+    }
+    return expr;
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    expr.callee = fold(expr.callee);
+    for (int i = 0; i < expr.arguments.size(); i++) {
+      expr.arguments.set(i, fold(expr.arguments.get(i)));
+    }
+    return expr;
+  }
+
+  @Override
+  public Expr visitGetExpr(Expr.Get expr) {
+    expr.object = fold(expr.object);
+    return expr;
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    expr.expression = fold(expr.expression);
+    if (expr.expression instanceof Expr.Literal) {
+      return expr.expression;
+    }
+    return expr;
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    expr.left = fold(expr.left);
+    expr.right = fold(expr.right);
+    if (expr.left instanceof Expr.Literal) {
+      // the left operand decides whether it's the result or the right one is
+      boolean truthy = Interpreter.isTruthy(((Expr.Literal)expr.left).value);
+      if (truthy == (expr.operator.type == TokenType.OR)) {
+        return expr.left;
+      }
+      return expr.right;
+    }
+    return expr;
+  }
+
+  @Override
+  public Expr visitSetExpr(Expr.Set expr) {
+    expr.object = fold(expr.object);
+    expr.value = fold(expr.value);
+    return expr;
+  }
+
+  @Override
+  public Expr visitSuperExpr(Expr.Super expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitThisExpr(Expr.This expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    expr.right = fold(expr.right);
+    if (expr.right instanceof Expr.Literal) {
+      return evaluate(expr);
+    }
+    return expr;
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    return expr;
+  }
+}
@@ -1,18 +1,33 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 class Environment {
+    private static final int DEFAULT_CAPACITY = 4;
+
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    // Only the global scope is looked up by name. Locals are resolved to a slot ahead of time by the Resolver, so a
+    // local scope is nothing more than an array indexed in declaration order
+    private final Map<String, Object> values;
+    private Object[] slots;
+    private int count = 0;
 
     Environment() {
         this.enclosing = null;
+        this.values = new HashMap<>();
+        this.slots = null;
     }
 
     Environment(Environment enclosing) {
+        this(enclosing, DEFAULT_CAPACITY);
+    }
+
+    Environment(Environment enclosing, int capacity) {
         this.enclosing = enclosing;
+        this.values = null;
+        this.slots = new Object[capacity];
     }
 
     Object get(Token name) {
@@ -20,15 +35,26 @@ class Environment {
             return values.get(name.lexeme);
         }
 
-        if (enclosing != null) {
-            return enclosing.get(name);
-        }
-
         throw new RuntimeError(name, "UNDEFINED VARIABLE '" + name.lexeme + "'!");
     }
 
     void define(String name, Object value) {
-        values.put(name, value);
+        if (values != null) {
+            values.put(name, value);
+            return;
+        }
+
+        // locals are defined in the same order the Resolver handed out their slots
+        if (count == slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(DEFAULT_CAPACITY, count * 2));
+        }
+        slots[count++] = value;
+    }
+
+    // empties a local scope so the same block can run in it again, see Interpreter.visitForStmt
+    void clear() {
+        Arrays.fill(slots, 0, count, null);
+        count = 0;
     }
 
     Environment ancestor(int distance) {
@@ -40,12 +66,12 @@ class Environment {
         return environment;
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    Object getAt(int distance, int slot) {
+        return ancestor(distance).slots[slot];
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
     }
 
     void assign(Token name, Object value) {
@@ -54,11 +80,6 @@ class Environment {
             return;
         }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
-
         throw new RuntimeError(name, "UNDEFINED VARIABLE '" + name.lexeme + "'!");
     }
 }
@@ -28,7 +28,10 @@ abstract class Expr {
     }
 
     final Token name;
-    final Expr value;
+    Expr value;
+    int depth = -1;
+    int slot;
+    boolean onStack;
   }
   static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
@@ -41,9 +44,11 @@ abstract class Expr {
       return visitor.visitBinaryExpr(this);
     }
 
-    final Expr left;
+    Expr left;
     final Token operator;
-    final Expr right;
+    Expr right;
+    boolean numeric;
+    transient Specialization state = Specialization.UNINITIALIZED;
   }
   static class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments) {
@@ -56,9 +61,12 @@ abstract class Expr {
       return visitor.visitCallExpr(this);
     }
 
-    final Expr callee;
+    Expr callee;
     final Token paren;
     final List<Expr> arguments;
+    transient Specialization state = Specialization.UNINITIALIZED;
+    transient LoxCallable cachedCallee;
+    transient long cachedRun;
   }
   static class Get extends Expr {
     Get(Expr object, Token name) {
@@ -70,8 +78,9 @@ abstract class Expr {
       return visitor.visitGetExpr(this);
     }
 
-    final Expr object;
+    Expr object;
     final Token name;
+    transient InlineCache cache = new InlineCache();
   }
   static class Grouping extends Expr {
     Grouping(Expr expression) {
@@ -82,7 +91,8 @@ abstract class Expr {
       return visitor.visitGroupingExpr(this);
     }
 
-    final Expr expression;
+    Expr expression;
+    boolean numeric;
   }
   static class Literal extends Expr {
     Literal(Object value) {
@@ -106,9 +116,10 @@ abstract class Expr {
       return visitor.visitSetExpr(this);
     }
 
-    final Expr object;
+    Expr object;
     final Token name;
-    final Expr value;
+    Expr value;
+    transient InlineCache cache = new InlineCache();
   }
   static class Super extends Expr {
     Super(Token keyword, Token method) {
@@ -122,6 +133,8 @@ abstract class Expr {
 
     final Token keyword;
     final Token method;
+    int depth = -1;
+    transient InlineCache cache = new InlineCache();
   }
   static class This extends Expr {
     This(Token keyword) {
@@ -133,6 +146,8 @@ abstract class Expr {
     }
 
     final Token keyword;
+    int depth = -1;
+    int slot;
   }
   static class Unary extends Expr {
     Unary(Token operator, Expr right) {
@@ -145,7 +160,8 @@ abstract class Expr {
     }
 
     final Token operator;
-    final Expr right;
+    Expr right;
+    boolean numeric;
   }
   static class Logical extends Expr {
     Logical(Expr left, Token operator, Expr right) {
@@ -158,9 +174,9 @@ abstract class Expr {
       return visitor.visitLogicalExpr(this);
     }
 
-    final Expr left;
+    Expr left;
     final Token operator;
-    final Expr right;
+    Expr right;
   }
   static class Variable extends Expr {
     Variable(Token name) {
@@ -172,6 +188,9 @@ abstract class Expr {
     }
 
     final Token name;
+    int depth = -1;
+    int slot;
+    boolean onStack;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
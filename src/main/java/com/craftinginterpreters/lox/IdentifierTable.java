@@ -0,0 +1,65 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Interns identifiers straight out of the Scanner's buffer. A name only becomes a String the first time it's seen,
+ * every later use of it gets that same String back without anything being allocated.
+ *
+ * Open addressing with linear probing, keyed on the same hash as String.hashCode so a stored name never needs its
+ * hash kept alongside it.
+ */
+final class IdentifierTable {
+  private String[] names = new String[64];
+  private int count = 0;
+
+  String intern(char[] chars, int offset, int length) {
+    int hash = 0;
+    for (int i = offset; i < offset + length; i++) {
+      hash = 31 * hash + chars[i];
+    }
+
+    int mask = names.length - 1;
+    for (int index = hash & mask; ; index = (index + 1) & mask) {
+      String name = names[index];
+      if (name == null) {
+        name = new String(chars, offset, length);
+        names[index] = name;
+        // kept at most three quarters full, so a probe always finds an empty slot before long
+        if (++count * 4 > names.length * 3) {
+          grow();
+        }
+        return name;
+      }
+      if (name.hashCode() == hash && matches(name, chars, offset, length)) {
+        return name;
+      }
+    }
+  }
+
+  private static boolean matches(String name, char[] chars, int offset, int length) {
+    if (name.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (name.charAt(i) != chars[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void grow() {
+    String[] old = names;
+    names = new String[old.length * 2];
+    int mask = names.length - 1;
+    for (String name : old) {
+      if (name == null) {
+        continue;
+      }
+      int index = name.hashCode() & mask;
+      while (names[index] != null) {
+        index = (index + 1) & mask;
+      }
+      names[index] = name;
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/**
+ * A per call site cache of what a property access found last time, keyed by the Shape of the instance (or by the
+ * superclass, for 'super'). Holds a few entries so a site that sees a handful of classes is still cached, once there
+ * are more than that the site is megamorphic and further lookups go uncached.
+ *
+ * Every run of a script makes its classes, and so its shapes, afresh, so entries from earlier runs (see
+ * Interpreter.run) can never be hit again. They're dropped once the cache is full, which also lets go of the classes
+ * and methods they hold, and only a cache full of entries from the run adding to it counts as megamorphic.
+ */
+final class InlineCache {
+  private static final int MAX_ENTRIES = 4;
+  private static final Entry[] EMPTY = new Entry[0];
+
+  // what a lookup for one key found, never changed once cached
+  static final class Entry {
+    final Object key;
+    // a field's index, or -1 for a method
+    final int index;
+    // a method, or the Shape a new field moves an instance to
+    final Object target;
+    // the run that cached it
+    final long run;
+
+    Entry(Object key, int index, Object target, long run) {
+      this.key = key;
+      this.index = index;
+      this.target = target;
+      this.run = run;
+    }
+  }
+
+  // Adding an entry publishes a new array rather than filling in a shared one, so the interpreters running a
+  // CompiledScript at once never see an entry half written. If two of them add at the same time one entry can get
+  // lost, which only costs a miss later on.
+  private volatile Entry[] entries = EMPTY;
+
+  /**
+   * @return the entry for the key, or null on a miss
+   */
+  Entry find(Object key) {
+    for (Entry entry : entries) {
+      if (entry.key == key) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Caches what a lookup for the key found during the run, a field's index, a method, or the Shape a new field moves
+   * an instance to.
+   */
+  void add(Object key, int index, Object target, long run) {
+    Entry[] entries = this.entries;
+    if (entries.length == MAX_ENTRIES) {
+      entries = fromRun(entries, run);
+      if (entries.length == MAX_ENTRIES) {
+        return;
+      }
+    }
+    Entry[] added = Arrays.copyOf(entries, entries.length + 1);
+    added[entries.length] = new Entry(key, index, target, run);
+    this.entries = added;
+  }
+
+  private static Entry[] fromRun(Entry[] entries, long run) {
+    int kept = 0;
+    Entry[] current = new Entry[entries.length];
+    for (Entry entry : entries) {
+      if (entry.run == run) {
+        current[kept++] = entry;
+      }
+    }
+    return Arrays.copyOf(current, kept);
+  }
+}
@@ -1,20 +1,44 @@
 package com.craftinginterpreters.lox;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.craftinginterpreters.lox.Stmt.Function;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+  private final ScreamContext context;
   final Environment globals = new Environment();
   private Environment environment = globals;
-  // easier to discard when needed, rather than storing in AST
-  private final Map<Expr, Integer> locals = new HashMap<>();
-
-
-  Interpreter() {
+  // keep intermediate numbers unboxed while evaluating nested arithmetic, only turned off to compare against
+  boolean unboxedArithmetic = true;
+  // let Binary and Call nodes specialize themselves on the values they see, see Specialization. This one switch also
+  // covers every other shortcut taken on what a node saw last time: property accesses and super calls using their
+  // InlineCache, and method calls skipping the bound method (callMethod and callSuperMethod), so turning it off
+  // measures all of them together. Only turned off to compare against
+  boolean specializing = true;
+  // told about every statement executed and every function called, see Profiler. Null unless profiling
+  Profiler profiler;
+  // what the script being run has done so far, see ScreamMetrics. Null unless the engine keeps metrics
+  ScreamMetrics.Run metrics;
+  // Which run of a script this is, unique across interpreters. Each run makes its functions and classes afresh, so
+  // call sites and InlineCaches tell what an earlier run cached (and will never see again) by it
+  private static final AtomicLong RUNS = new AtomicLong();
+  private long run;
+  // set by a RETURN until the function it returns from picks the value up, blocks and loops stop executing meanwhile
+  private boolean returning = false;
+  private Object returnValue;
+  // locals that no closure captures live in the calling function's frame on this stack instead of in an Environment,
+  // see Resolver. Frames are laid out back to back, the current one starts at frameBase
+  private Object[] stack = new Object[256];
+  private int frameBase = 0;
+  private int stackTop = 0;
+
+  Interpreter(ScreamContext context) {
+    this.context = context;
     // functions and variables occupy the same namespace
     globals.define("CLOCK", new LoxCallable() {
       @Override
@@ -35,27 +59,64 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   }
 
   void interpret(List<Stmt> statements) {
+    run = RUNS.incrementAndGet();
     try {
       for (Stmt statement : statements) {
         execute(statement);
       }
     } catch(RuntimeError error) {
-      Lox.runtimeError(error);
+      context.runtimeError(error);
+    }
+  }
+
+  // for every Environment made while running, when keeping metrics
+  void countEnvironment() {
+    if (metrics != null) {
+      metrics.environments++;
     }
   }
 
-  private String stringify(Object object) {
+  /**
+   * Reserves a frame for a function call on the value stack.
+   *
+   * @return the caller's frame, to hand back to exitFrame() once the call returns
+   */
+  int enterFrame(int size) {
+    int previous = frameBase;
+    frameBase = stackTop;
+    stackTop += size;
+    if (stackTop > stack.length) {
+      stack = Arrays.copyOf(stack, Math.max(stackTop, stack.length * 2));
+    }
+    return previous;
+  }
+
+  void exitFrame(int previous) {
+    // don't keep whatever the frame held alive
+    Arrays.fill(stack, frameBase, stackTop, null);
+    stackTop = frameBase;
+    frameBase = previous;
+  }
+
+  void defineLocal(int slot, Object value) {
+    stack[frameBase + slot] = value;
+  }
+
+  private void define(int slot, Token name, Object value) {
+    if (slot >= 0) {
+      stack[frameBase + slot] = value;
+    } else {
+      environment.define(name.lexeme, value);
+    }
+  }
+
+  String stringify(Object object) {
     if (object == null) {
       return "NIL";
     }
 
-    // Hack to work around Java adding ".0" to integer valued doubles
     if (object instanceof Double) {
-      String text = object.toString();
-      if (text.endsWith(".0")) {
-        text = text.substring(0, text.length() - 2);
-      }
-      return text;
+      return Numbers.toString((double)object);
     }
     return object.toString();
   }
@@ -91,32 +152,53 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     Object value = evaluate(expr.value);
-    ((LoxInstance)object).set(expr.name, value);
+    if (specializing) {
+      setCached(expr, (LoxInstance)object, value);
+    } else {
+      ((LoxInstance)object).set(expr.name, value);
+    }
     return null;
   }
 
   @Override
   public Object visitSuperExpr(Expr.Super expr) {
-    int distance = locals.get(expr);
-    LoxClass superclass = (LoxClass)environment.getAt(distance, "SUPER");
+    LoxFunction method = findSuperMethod(expr);
     // 'this' is always one level nearer
-    LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "THIS");
+    LoxInstance object = (LoxInstance)environment.getAt(expr.depth - 1, 0);
+    return method.bind(object, this);
+  }
+
+  private LoxFunction findSuperMethod(Expr.Super expr) {
+    // 'super' and 'this' are the only variable in their scopes, so both live in slot 0
+    LoxClass superclass = (LoxClass)environment.getAt(expr.depth, 0);
 
-    LoxFunction method = superclass.findMethod(expr.method.lexeme);
+    LoxFunction method;
+    InlineCache.Entry entry = specializing ? expr.cache.find(superclass) : null;
+    if (entry != null) {
+      method = (LoxFunction)entry.target;
+    } else {
+      method = superclass.findMethod(expr.method.lexeme);
+      if (method != null && specializing) {
+        expr.cache.add(superclass, -1, method, run);
+      }
+    }
 
     if (method == null) {
       throw new RuntimeError(expr.method, "UNDEFINED PROPERTY '" + expr.method.lexeme + "'!");
     }
-    return method.bind(object);
+    return method;
   }
 
   @Override
   public Object visitThisExpr(Expr.This expr) {
-    return lookUpVariable(expr.keyword, expr);
+    return lookUpVariable(expr.keyword, expr.depth, expr.slot);
   }
 
   @Override
   public Object visitUnaryExpr(Expr.Unary expr) {
+    if (expr.numeric && unboxedArithmetic) {
+      return evaluateDouble(expr);
+    }
     Object right = evaluate(expr.right);
 
     switch (expr.operator.type) {
@@ -130,27 +212,33 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return null;
   }
 
-  private void checkNumberOperand(Token operator, Object operand) {
+  static void checkNumberOperand(Token operator, Object operand) {
       if (operand instanceof Double) {
         return;
       }
       throw new RuntimeError(operator, "OPERAND MUST BE A NUMBER!");
   }
 
-  private void checkNumberOperands(Token operator, Object left, Object right) {
+  static void checkNumberOperands(Token operator, Object left, Object right) {
     if (left instanceof Double && right instanceof Double) {
       return;
     }
     throw new RuntimeError(operator, "OPERANDS MUST BE NUMBERS!");
   }
 
-  private void checkDivisibleByZero(Token operator, Object right) {
-    if(right instanceof Double && (Double)right == 0.0) {
+  static void checkDivisibleByZero(Token operator, Object right) {
+    if(right instanceof Double) {
+      checkDivisibleByZero(operator, (double)right);
+    }
+  }
+
+  static void checkDivisibleByZero(Token operator, double right) {
+    if(right == 0.0) {
       throw new RuntimeError(operator, "CANNOT DIVIDE BY ZERO!");
     }
   }
 
-  private boolean isTruthy(Object object) {
+  static boolean isTruthy(Object object) {
     if (object == null){
       return false;
     }
@@ -160,13 +248,17 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return true;
   }
 
-  private boolean isEqual(Object a, Object b) {
+  static boolean isEqual(Object a, Object b) {
     if (a == null && b == null) {
       return true;
     }
     if (a == null) {
       return false;
     }
+    // a string built up with + may be a Rope or a String, whichever it is only its characters count
+    if (a instanceof Rope || b instanceof Rope) {
+      return Rope.isString(a) && Rope.isString(b) && a.toString().equals(b.toString());
+    }
     return a.equals(b);
   }
 
@@ -179,17 +271,98 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return expr.accept(this);
   }
 
-  private void execute(Stmt stmt) {
-    stmt.accept(this);
+  /**
+   * Evaluates an expression the Resolver marked as numeric without boxing anything along the way, only the outermost
+   * caller boxes the result once it's stored or passed somewhere.
+   */
+  private double evaluateDouble(Expr expr) {
+    if (expr instanceof Expr.Literal) {
+      return (double)((Expr.Literal)expr).value;
+    }
+    if (expr instanceof Expr.Grouping) {
+      return evaluateDouble(((Expr.Grouping)expr).expression);
+    }
+    if (expr instanceof Expr.Unary) {
+      Expr.Unary unary = (Expr.Unary)expr;
+      if (Resolver.isNumeric(unary.right)) {
+        return -evaluateDouble(unary.right);
+      }
+      Object right = evaluate(unary.right);
+      checkNumberOperand(unary.operator, right);
+      return -(double)right;
+    }
+
+    Expr.Binary binary = (Expr.Binary)expr;
+    double left;
+    double right;
+    if (Resolver.isNumeric(binary.left) && Resolver.isNumeric(binary.right)) {
+      left = evaluateDouble(binary.left);
+      right = evaluateDouble(binary.right);
+    } else {
+      // both sides are evaluated before either is checked, same as the boxed path
+      Object boxedLeft = evaluate(binary.left);
+      Object boxedRight = evaluate(binary.right);
+      checkNumberOperands(binary.operator, boxedLeft, boxedRight);
+      left = (double)boxedLeft;
+      right = (double)boxedRight;
+    }
+
+    switch (binary.operator.type) {
+      case MINUS:
+        return left - right;
+      case SLASH:
+        checkDivisibleByZero(binary.operator, right);
+        return left / right;
+      case STAR:
+        return left * right;
+      default:
+        // the Resolver only marks PLUS numeric when both sides are numbers
+        return left + right;
+    }
   }
 
-  void resolve(Expr expr, int depth) {
-    locals.put(expr, depth);
+  // compares two numeric operands without boxing them first
+  private boolean compareDoubles(Expr.Binary expr) {
+    double left = evaluateDouble(expr.left);
+    double right = evaluateDouble(expr.right);
+
+    switch (expr.operator.type) {
+      case GREATER:
+        return left > right;
+      case GREATER_EQUAL:
+        return left >= right;
+      case LESS:
+        return left < right;
+      default:
+        return left <= right;
+    }
+  }
+
+  private void execute(Stmt stmt) {
+    if (metrics != null) {
+      metrics.statements++;
+    }
+    if (profiler != null) {
+      profiler.enterStatement(stmt);
+      try {
+        stmt.accept(this);
+      } finally {
+        profiler.exitStatement();
+      }
+      return;
+    }
+    stmt.accept(this);
   }
 
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
-    executeBlock(stmt.statements, new Environment(environment));
+    // the Resolver leaves blocks that declare nothing without a scope
+    if (stmt.scoped) {
+      countEnvironment();
+      executeBlock(stmt.statements, new Environment(environment));
+    } else {
+      executeBlock(stmt.statements, environment);
+    }
     return null;
   }
 
@@ -203,12 +376,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       }
     }
 
-    environment.define(stmt.name.lexeme, null);
-
     // Create a new env as a part of eval a subclass
     if (stmt.superclass != null) {
       // store ref to superclass in the env
       // methods will go to the same env as super
+      countEnvironment();
       environment = new Environment(environment);
       environment.define("SUPER", superclass);
     }
@@ -226,7 +398,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       environment = environment.enclosing;
     }
 
-    environment.assign(stmt.name, klass);
+    // methods only look the class up by name when they're called, so it's safe to define it once it's complete
+    define(stmt.slot, stmt.name, klass);
     return null;
   }
 
@@ -237,17 +410,76 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
       for (Stmt statement : statements) {
         execute(statement);
+        if (returning) {
+          break;
+        }
       }
     } finally {
       this.environment = previous;
     }
   }
 
+  /**
+   * Executes a function's body.
+   *
+   * @return the value it returned, or nil if it ran off the end
+   */
+  Object executeBody(List<Stmt> body, Environment environment) {
+    executeBlock(body, environment);
+    if (!returning) {
+      return null;
+    }
+    Object value = returnValue;
+    returning = false;
+    returnValue = null;
+    return value;
+  }
+
   @Override
   public Object visitBinaryExpr(Expr.Binary expr) {
+    if (unboxedArithmetic) {
+      if (expr.numeric) {
+        return evaluateDouble(expr);
+      }
+      switch (expr.operator.type) {
+        case GREATER:
+        case GREATER_EQUAL:
+        case LESS:
+        case LESS_EQUAL:
+          if (Resolver.isNumeric(expr.left) && Resolver.isNumeric(expr.right)) {
+            return compareDoubles(expr);
+          }
+          break;
+        default:
+          break;
+      }
+    }
+
     Object left = evaluate(expr.left);
     Object right = evaluate(expr.right);
 
+    if (specializing) {
+      switch (expr.state) {
+        case NUMBERS:
+          if (left instanceof Double && right instanceof Double) {
+            return binaryNumbers(expr.operator, (double)left, (double)right);
+          }
+          expr.state = Specialization.GENERIC;
+          break;
+        case STRINGS:
+          if (Rope.isString(left) && Rope.isString(right)) {
+            return Rope.concat((CharSequence)left, (CharSequence)right);
+          }
+          expr.state = Specialization.GENERIC;
+          break;
+        case UNINITIALIZED:
+          expr.state = specialize(expr.operator.type, left, right);
+          break;
+        default:
+          break;
+      }
+    }
+
     switch (expr.operator.type) {
       case GREATER:
         checkNumberOperands(expr.operator, left, right);
@@ -269,14 +501,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         checkDivisibleByZero(expr.operator, right);
         return (double)left / (double)right;
       case PLUS:
-        if (left instanceof Double && right instanceof Double) {
-          return (double)left + (double)right;
-        }
-
-        if(left instanceof String || right instanceof String) {
-          return stringify(left) + stringify(right);
-        }
-        throw new RuntimeError(expr.operator, "OPERANDS MUST BE TWO NUMBERS OR ONE MUST BE A STRING!");
+        return add(left, right, expr.operator);
       case STAR:
         checkNumberOperands(expr.operator, left, right);
         return (double)left * (double)right;
@@ -290,41 +515,237 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return null;
   }
 
+  private static Specialization specialize(TokenType operator, Object left, Object right) {
+    switch (operator) {
+      case PLUS:
+        if (Rope.isString(left) && Rope.isString(right)) {
+          return Specialization.STRINGS;
+        }
+        return numbers(left, right);
+      case GREATER:
+      case GREATER_EQUAL:
+      case LESS:
+      case LESS_EQUAL:
+      case MINUS:
+      case SLASH:
+      case STAR:
+        return numbers(left, right);
+      default:
+        // equality already works the same for any operands
+        return Specialization.GENERIC;
+    }
+  }
+
+  private static Specialization numbers(Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) {
+      return Specialization.NUMBERS;
+    }
+    return Specialization.GENERIC;
+  }
+
+  // the arithmetic and comparison operators once both operands are known to be numbers
+  private static Object binaryNumbers(Token operator, double left, double right) {
+    switch (operator.type) {
+      case GREATER:
+        return left > right;
+      case GREATER_EQUAL:
+        return left >= right;
+      case LESS:
+        return left < right;
+      case LESS_EQUAL:
+        return left <= right;
+      case MINUS:
+        return left - right;
+      case SLASH:
+        checkDivisibleByZero(operator, right);
+        return left / right;
+      case STAR:
+        return left * right;
+      default:
+        return left + right;
+    }
+  }
+
+  Object add(Object left, Object right, Token operator) {
+    if (left instanceof Double && right instanceof Double) {
+      return (double)left + (double)right;
+    }
+
+    if(Rope.isString(left) || Rope.isString(right)) {
+      return Rope.concat(text(left), text(right));
+    }
+    throw new RuntimeError(operator, "OPERANDS MUST BE TWO NUMBERS OR ONE MUST BE A STRING!");
+  }
+
+  // a value as it's added to a string, without turning a Rope into a String
+  private CharSequence text(Object value) {
+    return value instanceof Rope ? (Rope)value : stringify(value);
+  }
+
   @Override
   public Object visitCallExpr(Expr.Call expr) {         
+    if (specializing && expr.callee instanceof Expr.Get) {
+      return callMethod(expr, (Expr.Get)expr.callee);
+    }
+    if (specializing && expr.callee instanceof Expr.Super) {
+      return callSuperMethod(expr, (Expr.Super)expr.callee);
+    }
+
     // Typically this expression is just an identifier that looks up the function by name
     Object callee = evaluate(expr.callee);
 
     // Subtle semantic choice here, since the args could have side effects, order eval may be user visible
-    List<Object> arguments = new ArrayList<>();
+    List<Object> arguments = evaluateArguments(expr);
+
+    if (specializing && expr.state != Specialization.GENERIC) {
+      // the arity was checked when the callee was cached. Read once, another interpreter running the same tree may
+      // be changing it, and may not have stored the callee yet for the state it has already set. A call site that
+      // hasn't cached anything must not take NIL for its callee
+      LoxCallable cached = expr.cachedCallee;
+      if (expr.state == Specialization.MONOMORPHIC && cached != null && callee == cached) {
+        return cached.call(this, arguments);
+      }
+      // a callee cached by an earlier run was made afresh for this one, so the site specializes again on the new one
+      // rather than giving up on it
+      if ((expr.state == Specialization.UNINITIALIZED || expr.cachedRun != run) && callee instanceof LoxCallable
+        && ((LoxCallable)callee).arity() == arguments.size()) {
+        expr.cachedCallee = (LoxCallable)callee;
+        expr.cachedRun = run;
+        expr.state = Specialization.MONOMORPHIC;
+        return ((LoxCallable)callee).call(this, arguments);
+      }
+      expr.state = Specialization.GENERIC;
+      expr.cachedCallee = null;
+    }
+
+    return call(callee, arguments, expr.paren);
+  }
+
+  private List<Object> evaluateArguments(Expr.Call expr) {
+    List<Object> arguments = new ArrayList<>(expr.arguments.size());
     for (Expr argument : expr.arguments) {
       arguments.add(evaluate(argument));
     }
+    return arguments;
+  }
+
+  // 'obj.METHOD()' calls the method with 'this' supplied directly, a bound method is only made if it's used as a value
+  private Object callMethod(Expr.Call expr, Expr.Get get) {
+    Object object = evaluate(get.object);
+    if (!(object instanceof LoxInstance)) {
+      throw new RuntimeError(get.name, "ONLY INSTANCES HAVE PROPERTIES!");
+    }
+    LoxInstance instance = (LoxInstance)object;
+
+    InlineCache.Entry entry = propertyEntry(get, instance);
+    if (entry == null || entry.index >= 0) {
+      // a field holding something callable, or no cache to go by
+      Object callee = getCached(get, instance);
+      return call(callee, evaluateArguments(expr), expr.paren);
+    }
+
+    LoxFunction method = (LoxFunction)entry.target;
+    List<Object> arguments = evaluateArguments(expr);
+    checkArity(method, arguments, expr.paren);
+    return method.callMethod(this, instance, arguments);
+  }
+
+  private Object callSuperMethod(Expr.Call expr, Expr.Super callee) {
+    LoxFunction method = findSuperMethod(callee);
+    LoxInstance object = (LoxInstance)environment.getAt(callee.depth - 1, 0);
+    List<Object> arguments = evaluateArguments(expr);
+    checkArity(method, arguments, expr.paren);
+    return method.callMethod(this, object, arguments);
+  }
 
+  Object call(Object callee, List<Object> arguments, Token paren) {
     if(!(callee instanceof LoxCallable)) {
-      throw new RuntimeError(expr.paren, "CAN ONLY CALL FUNCTIONS AND CLASSES!");
+      throw new RuntimeError(paren, "CAN ONLY CALL FUNCTIONS AND CLASSES!");
     }
 
     LoxCallable function = (LoxCallable)callee;
+    checkArity(function, arguments, paren);
+    return function.call(this, arguments);
+  }
 
+  private static void checkArity(LoxCallable function, List<Object> arguments, Token paren) {
     // Take the Python approach to arity - if the args don't match the functions arity, throw
     if (function.arity() != arguments.size()) {
-      throw new RuntimeError(expr.paren, "EXPECTED " + function.arity() + " ARGUMENTS BUT GOT " + arguments.size() + "!");
+      throw new RuntimeError(paren, "EXPECTED " + function.arity() + " ARGUMENTS BUT GOT " + arguments.size() + "!");
     }
-    
-    return function.call(this, arguments);
   }
 
   @Override
   public Object visitGetExpr(Expr.Get expr) {
     Object object = evaluate(expr.object);
     if (object instanceof LoxInstance) {
-      return ((LoxInstance) object).get(expr.name);
+      if (specializing) {
+        return getCached(expr, (LoxInstance)object);
+      }
+      return ((LoxInstance) object).get(expr.name, this);
     }
 
     throw new RuntimeError(expr.name, "ONLY INSTANCES HAVE PROPERTIES!");
   }
 
+  private Object getCached(Expr.Get expr, LoxInstance instance) {
+    InlineCache.Entry entry = propertyEntry(expr, instance);
+    if (entry == null) {
+      return instance.get(expr.name, this);
+    }
+    return entry.index >= 0 ? instance.getField(entry.index) : ((LoxFunction)entry.target).bind(instance, this);
+  }
+
+  /**
+   * @return the cache entry for the instance's shape, filled in on a miss, or null if there's no such property or the
+   * site is megamorphic
+   */
+  private InlineCache.Entry propertyEntry(Expr.Get expr, LoxInstance instance) {
+    InlineCache cache = expr.cache;
+    InlineCache.Entry entry = cache.find(instance.shape);
+    if (entry != null) {
+      return entry;
+    }
+
+    // fields shadow methods, so a method is only cached for shapes that don't have a field with its name
+    int index = instance.shape.indexOf(expr.name.lexeme);
+    if (index >= 0) {
+      cache.add(instance.shape, index, null, run);
+    } else {
+      LoxFunction method = instance.klass.findMethod(expr.name.lexeme);
+      if (method == null) {
+        return null;
+      }
+      cache.add(instance.shape, -1, method, run);
+    }
+    return cache.find(instance.shape);
+  }
+
+  private void setCached(Expr.Set expr, LoxInstance instance, Object value) {
+    InlineCache cache = expr.cache;
+    Shape shape = instance.shape;
+    InlineCache.Entry entry = cache.find(shape);
+    if (entry != null) {
+      if (entry.target != null) {
+        instance.addField((Shape)entry.target, value);
+      } else {
+        instance.setField(entry.index, value);
+      }
+      return;
+    }
+
+    int index = shape.indexOf(expr.name.lexeme);
+    if (index >= 0) {
+      cache.add(shape, index, null, run);
+      instance.setField(index, value);
+    } else {
+      // a new field, remember which shape that leads to
+      Shape next = shape.withField(expr.name.lexeme);
+      cache.add(shape, next.size() - 1, next, run);
+      instance.addField(next, value);
+    }
+  }
+
   @Override
   public Void visitExpressionStmt(Stmt.Expression stmt) {
     evaluate(stmt.expression);
@@ -335,7 +756,48 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   public Void visitFunctionStmt(Function stmt) {
     // function declarations are never initializers
     LoxFunction function = new LoxFunction(stmt, environment, false);
-    environment.define(stmt.name.lexeme, function);
+    define(stmt.slot, stmt.name, function);
+    return null;
+  }
+
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    Environment previous = this.environment;
+    try {
+      if (stmt.scoped) {
+        countEnvironment();
+        this.environment = new Environment(previous, 1);
+      }
+      if (stmt.initializer != null) {
+        execute(stmt.initializer);
+      }
+
+      // when nothing can hold on to the body's scope past an iteration, one Environment is cleared and reused
+      Stmt.Block reusable = null;
+      Environment bodyEnvironment = null;
+      if (stmt.body instanceof Stmt.Block && ((Stmt.Block)stmt.body).scoped && !((Stmt.Block)stmt.body).captured) {
+        reusable = (Stmt.Block)stmt.body;
+        countEnvironment();
+        bodyEnvironment = new Environment(environment);
+      }
+
+      while (isTruthy(evaluate(stmt.condition))) {
+        if (reusable != null) {
+          bodyEnvironment.clear();
+          executeBlock(reusable.statements, bodyEnvironment);
+        } else {
+          execute(stmt.body);
+        }
+        if (returning) {
+          break;
+        }
+        if (stmt.increment != null) {
+          evaluate(stmt.increment);
+        }
+      }
+    } finally {
+      this.environment = previous;
+    }
     return null;
   }
 
@@ -351,18 +813,23 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitPrintStmt(Stmt.Print stmt) {
-    Object value = evaluate(stmt.expression);
-    System.out.println(stringify(value));
+    print(evaluate(stmt.expression));
     return null;
   }
 
+  void print(Object value) {
+    context.print(stringify(value));
+  }
+
   @Override
   public Void visitReturnStmt(Stmt.Return stmt) {
     Object value = null;
     if (stmt.value != null) {
       value = evaluate(stmt.value);
     }
-    throw new Return(value);
+    returnValue = value;
+    returning = true;
+    return null;
   }
 
   @Override
@@ -372,7 +839,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       value = evaluate(stmt.initializer);
     }
 
-    environment.define(stmt.name.lexeme, value);
+    define(stmt.slot, stmt.name, value);
     return null;
   }
 
@@ -380,6 +847,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   public Void visitWhileStmt(Stmt.While stmt) {
     while (isTruthy(evaluate(stmt.condition))) {
       execute(stmt.body);
+      if (returning) {
+        break;
+      }
     }
     return null;
   }
@@ -388,9 +858,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   public Object visitAssignExpr(Expr.Assign expr) {
     Object value = evaluate(expr.value);
 
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      environment.assignAt(distance, expr.name, value);
+    if (expr.onStack) {
+      stack[frameBase + expr.slot] = value;
+    } else if (expr.depth >= 0) {
+      environment.assignAt(expr.depth, expr.slot, value);
     } else {
       globals.assign(expr.name, value);
     }
@@ -400,13 +871,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitVariableExpr(Expr.Variable expr) {
-    return lookUpVariable(expr.name, expr);
+    if (expr.onStack) {
+      return stack[frameBase + expr.slot];
+    }
+    return lookUpVariable(expr.name, expr.depth, expr.slot);
   }
 
-  private Object lookUpVariable(Token name, Expr expr) {
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      return environment.getAt(distance, name.lexeme);
+  private Object lookUpVariable(Token name, int depth, int slot) {
+    // a negative depth means the Resolver didn't find it in any local scope
+    if (depth >= 0) {
+      return environment.getAt(depth, slot);
     } else {
       return globals.get(name);
     }
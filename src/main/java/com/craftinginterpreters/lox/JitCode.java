@@ -0,0 +1,10 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Implemented by the classes the {@link JitCompiler} generates for hot functions. Public along with
+ * {@link JitRuntime}, generated classes are defined by a class loader of their own and can't see anything
+ * package-private. For the same reason everything is passed around as Object.
+ */
+public interface JitCode {
+  Object invoke(Object interpreter, Object closure, Object[] arguments, Object[] constants);
+}
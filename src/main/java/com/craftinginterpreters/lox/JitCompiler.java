@@ -0,0 +1,824 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.craftinginterpreters.lox.jit.ClassFile;
+import com.craftinginterpreters.lox.jit.Code;
+import com.craftinginterpreters.lox.jit.JitClassLoader;
+import com.craftinginterpreters.lox.jit.Label;
+
+/**
+ * Compiles a hot function's body into a JVM class so HotSpot can inline and optimize it like any other Java code.
+ *
+ * Only a subset of the language is supported: functions that declare other functions or classes, or that touch
+ * 'this', 'super' or properties are left to the tree-walker. Locals that only ever hold numbers are kept in unboxed
+ * double JVM locals. For parameters that's an assumption, checked by {@link CompiledFunction#accepts} on every call;
+ * when it doesn't hold the call falls back to the tree-walker.
+ */
+final class JitCompiler implements Expr.Visitor<JitCompiler.Kind>, Stmt.Visitor<Void> {
+  // what a compiled expression leaves on the JVM operand stack
+  enum Kind {
+    DOUBLE,
+    BOOLEAN,
+    OBJECT,
+  }
+
+  private static class Unsupported extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    Unsupported() {
+      super(null, null, false, false);
+    }
+  }
+
+  // a parameter or variable declared in the function, along with the JVM local holding it
+  private static class LocalVar {
+    int index;
+    boolean numeric = true;
+    // whether it's ever the operand of arithmetic or a comparison
+    boolean arithmetic;
+  }
+
+  private static final String RUNTIME = "com/craftinginterpreters/lox/JitRuntime";
+  private static final String OBJECT = "Ljava/lang/Object;";
+  private static final String INVOKE = "(" + OBJECT + OBJECT + "[" + OBJECT + "[" + OBJECT + ")" + OBJECT;
+  // invoke(interpreter, closure, arguments, constants)
+  private static final int INTERPRETER = 1;
+  private static final int CLOSURE = 2;
+  private static final int ARGUMENTS = 3;
+  private static final int CONSTANTS = 4;
+  private static final AtomicInteger classIds = new AtomicInteger();
+
+  private final Stmt.Function declaration;
+  private final List<Object> constants = new ArrayList<>();
+  private final Map<Object, LocalVar> locals = new IdentityHashMap<>();
+  // how far out into the closure a variable from an enclosing function lives
+  private final Map<Expr, Integer> freeDepths = new IdentityHashMap<>();
+  private final List<LocalVar> assigned = new ArrayList<>();
+  private final List<Expr> assignedValues = new ArrayList<>();
+  private final List<LocalVar> params = new ArrayList<>();
+  private final List<LocalVar> allLocals = new ArrayList<>();
+  // by frame slot, the Resolver already gave every parameter and variable in the function one of its own
+  private LocalVar[] frame;
+  private int localSlots;
+  private Code code;
+
+  private JitCompiler(Stmt.Function declaration) {
+    this.declaration = declaration;
+  }
+
+  /**
+   * @return the compiled function, or null if it uses anything the JIT doesn't support
+   */
+  static CompiledFunction compile(Stmt.Function declaration) {
+    try {
+      return new JitCompiler(declaration).compile();
+    } catch (Unsupported | IllegalStateException e) {
+      return null;
+    } catch (ReflectiveOperationException | LinkageError e) {
+      // the generated class failed to load, keep interpreting
+      return null;
+    }
+  }
+
+  private CompiledFunction compile() throws ReflectiveOperationException {
+    analyze();
+
+    String className = "com/craftinginterpreters/lox/jit/Compiled$" + classIds.incrementAndGet() + "$"
+      + declaration.name.lexeme;
+    ClassFile classFile = new ClassFile(className, "java/lang/Object", "com/craftinginterpreters/lox/JitCode");
+
+    Code constructor = classFile.addMethod(ClassFile.ACC_PUBLIC, "<init>", "()V");
+    constructor.aload(0);
+    constructor.invoke(Code.INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+    constructor.op(Code.RETURN);
+
+    code = classFile.addMethod(ClassFile.ACC_PUBLIC, "invoke", INVOKE);
+    code.reserveLocals(localSlots);
+    boolean[] numericParams = new boolean[params.size()];
+    for (int i = 0; i < params.size(); i++) {
+      LocalVar param = params.get(i);
+      numericParams[i] = param.numeric;
+      code.aload(ARGUMENTS);
+      code.iconst(i);
+      code.op(Code.AALOAD);
+      if (param.numeric) {
+        code.checkcast("java/lang/Double");
+        code.invoke(Code.INVOKEVIRTUAL, "java/lang/Double", "doubleValue", "()D");
+        code.dstore(param.index);
+      } else {
+        code.astore(param.index);
+      }
+    }
+    for (Stmt statement : declaration.body) {
+      statement.accept(this);
+    }
+    // falling off the end of a function returns nil
+    code.op(Code.ACONST_NULL);
+    code.op(Code.ARETURN);
+
+    byte[] bytes = classFile.toByteArray();
+    Class<?> compiled = new JitClassLoader(JitCompiler.class.getClassLoader())
+      .define(className.replace('/', '.'), bytes);
+    JitCode jitCode = (JitCode)compiled.getDeclaredConstructor().newInstance();
+    return new CompiledFunction(jitCode, constants.toArray(), numericParams);
+  }
+
+  // Works out where every variable the body refers to lives, and which locals can be kept as doubles
+  private void analyze() {
+    // anything captured lives in an Environment, which compiled code has no way of creating
+    if (declaration.scoped) {
+      throw new Unsupported();
+    }
+    Analyzer analyzer = new Analyzer();
+    frame = new LocalVar[declaration.frameSize];
+    for (int i = 0; i < declaration.params.size(); i++) {
+      params.add(declare(i));
+    }
+    for (Stmt statement : declaration.body) {
+      statement.accept(analyzer);
+    }
+    // only bet on a parameter being a number if the body does math with it, otherwise the guard fails for nothing
+    for (LocalVar param : params) {
+      param.numeric = param.arithmetic;
+    }
+
+    // a local stays numeric only if everything ever stored in it is, which can depend on other locals
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = 0; i < assigned.size(); i++) {
+        LocalVar local = assigned.get(i);
+        Expr value = assignedValues.get(i);
+        if (local.numeric && (value == null || kindOf(value) != Kind.DOUBLE)) {
+          local.numeric = false;
+          changed = true;
+        }
+      }
+    }
+
+    int nextIndex = CONSTANTS + 1;
+    for (LocalVar local : allLocals) {
+      local.index = nextIndex;
+      nextIndex += local.numeric ? 2 : 1;
+    }
+    if (nextIndex > 0xffff) {
+      throw new Unsupported();
+    }
+    localSlots = nextIndex;
+  }
+
+  private LocalVar declare(int slot) {
+    LocalVar local = new LocalVar();
+    frame[slot] = local;
+    allLocals.add(local);
+    return local;
+  }
+
+  private void resolve(Expr expr, boolean onStack, int depth, int slot) {
+    if (onStack) {
+      locals.put(expr, frame[slot]);
+    } else if (depth >= 0) {
+      // none of the function's own scopes have an Environment, so the depth starts at the closure
+      freeDepths.put(expr, depth);
+    }
+  }
+
+  private class Analyzer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      for (Stmt statement : stmt.statements) {
+        statement.accept(this);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      throw new Unsupported();
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      return stmt.expression.accept(this);
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+      if (stmt.initializer != null) {
+        stmt.initializer.accept(this);
+      }
+      stmt.condition.accept(this);
+      stmt.body.accept(this);
+      if (stmt.increment != null) {
+        stmt.increment.accept(this);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      throw new Unsupported();
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      stmt.condition.accept(this);
+      stmt.thenBranch.accept(this);
+      if (stmt.elseBranch != null) {
+        stmt.elseBranch.accept(this);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      return stmt.expression.accept(this);
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      if (stmt.value != null) {
+        stmt.value.accept(this);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      if (stmt.initializer != null) {
+        stmt.initializer.accept(this);
+      }
+      // a variable a closure captures lives in an Environment
+      if (stmt.slot < 0) {
+        throw new Unsupported();
+      }
+      LocalVar local = declare(stmt.slot);
+      locals.put(stmt, local);
+      assigned.add(local);
+      assignedValues.add(stmt.initializer);
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      stmt.condition.accept(this);
+      return stmt.body.accept(this);
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      expr.value.accept(this);
+      resolve(expr, expr.onStack, expr.depth, expr.slot);
+      LocalVar local = locals.get(expr);
+      if (local != null) {
+        assigned.add(local);
+        assignedValues.add(expr.value);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      expr.left.accept(this);
+      expr.right.accept(this);
+      switch (expr.operator.type) {
+        case MINUS:
+        case STAR:
+        case SLASH:
+        case PLUS:
+        case GREATER:
+        case GREATER_EQUAL:
+        case LESS:
+        case LESS_EQUAL:
+          markArithmetic(expr.left);
+          markArithmetic(expr.right);
+          break;
+        default:
+          break;
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      expr.right.accept(this);
+      if (expr.operator.type == TokenType.MINUS) {
+        markArithmetic(expr.right);
+      }
+      return null;
+    }
+
+    private void markArithmetic(Expr operand) {
+      LocalVar local = locals.get(operand);
+      if (local != null) {
+        local.arithmetic = true;
+      }
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      expr.callee.accept(this);
+      for (Expr argument : expr.arguments) {
+        argument.accept(this);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+      throw new Unsupported();
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      return expr.expression.accept(this);
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+      throw new Unsupported();
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+      throw new Unsupported();
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+      throw new Unsupported();
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      expr.left.accept(this);
+      return expr.right.accept(this);
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      resolve(expr, expr.onStack, expr.depth, expr.slot);
+      return null;
+    }
+  }
+
+  private Kind kindOf(Expr expr) {
+    if (expr instanceof Expr.Literal) {
+      Object value = ((Expr.Literal)expr).value;
+      if (value instanceof Double) {
+        return Kind.DOUBLE;
+      }
+      return value instanceof Boolean ? Kind.BOOLEAN : Kind.OBJECT;
+    } else if (expr instanceof Expr.Grouping) {
+      return kindOf(((Expr.Grouping)expr).expression);
+    } else if (expr instanceof Expr.Variable || expr instanceof Expr.Assign) {
+      LocalVar local = locals.get(expr);
+      return local != null && local.numeric ? Kind.DOUBLE : Kind.OBJECT;
+    } else if (expr instanceof Expr.Unary) {
+      // negation either produces a number or fails
+      return ((Expr.Unary)expr).operator.type == TokenType.MINUS ? Kind.DOUBLE : Kind.BOOLEAN;
+    } else if (expr instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary)expr;
+      switch (binary.operator.type) {
+        case MINUS:
+        case STAR:
+        case SLASH:
+          return Kind.DOUBLE;
+        case PLUS:
+          boolean numbers = kindOf(binary.left) == Kind.DOUBLE && kindOf(binary.right) == Kind.DOUBLE;
+          return numbers ? Kind.DOUBLE : Kind.OBJECT;
+        case GREATER:
+        case GREATER_EQUAL:
+        case LESS:
+        case LESS_EQUAL:
+        case BANG_EQUAL:
+          return Kind.BOOLEAN;
+        default:
+          return Kind.OBJECT;
+      }
+    }
+    return Kind.OBJECT;
+  }
+
+  private void emit(Expr expr, Kind kind) {
+    coerce(expr.accept(this), kind);
+  }
+
+  private void coerce(Kind from, Kind to) {
+    if (from == to) {
+      return;
+    }
+    if (to != Kind.OBJECT) {
+      // kindOf() never lets this happen
+      throw new IllegalStateException("Cannot unbox " + from + " to " + to);
+    }
+    if (from == Kind.DOUBLE) {
+      code.invoke(Code.INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+    } else {
+      code.invoke(Code.INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+    }
+  }
+
+  private void pop(Kind kind) {
+    code.op(kind == Kind.DOUBLE ? Code.POP2 : Code.POP);
+  }
+
+  // tokens and anything else that can't live in the class file's constant pool are handed over in an array
+  private void emitConstant(Object value) {
+    int index = constants.indexOf(value);
+    if (index < 0) {
+      index = constants.size();
+      constants.add(value);
+    }
+    code.aload(CONSTANTS);
+    code.iconst(index);
+    code.op(Code.AALOAD);
+  }
+
+  private void emitRuntimeCall(String name, String descriptor) {
+    code.invoke(Code.INVOKESTATIC, RUNTIME, name, descriptor);
+  }
+
+  // leaves an int on the stack, 0 if the condition is falsey
+  private void emitCondition(Expr condition) {
+    Kind kind = condition.accept(this);
+    if (kind == Kind.DOUBLE) {
+      // numbers are always truthy
+      code.op(Code.POP2);
+      code.op(Code.ICONST_1);
+    } else if (kind == Kind.OBJECT) {
+      emitRuntimeCall("isTruthy", "(" + OBJECT + ")Z");
+    }
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    for (Stmt statement : stmt.statements) {
+      statement.accept(this);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    throw new Unsupported();
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    pop(stmt.expression.accept(this));
+    return null;
+  }
+
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    if (stmt.initializer != null) {
+      stmt.initializer.accept(this);
+    }
+    Label start = new Label();
+    Label end = new Label();
+    code.bind(start);
+    emitCondition(stmt.condition);
+    code.jump(Code.IFEQ, end);
+    stmt.body.accept(this);
+    if (stmt.increment != null) {
+      pop(stmt.increment.accept(this));
+    }
+    code.jump(Code.GOTO, start);
+    code.bind(end);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    throw new Unsupported();
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    Label elseBranch = new Label();
+    emitCondition(stmt.condition);
+    code.jump(Code.IFEQ, elseBranch);
+    stmt.thenBranch.accept(this);
+    if (stmt.elseBranch != null) {
+      Label end = new Label();
+      code.jump(Code.GOTO, end);
+      code.bind(elseBranch);
+      stmt.elseBranch.accept(this);
+      code.bind(end);
+    } else {
+      code.bind(elseBranch);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    code.aload(INTERPRETER);
+    emit(stmt.expression, Kind.OBJECT);
+    emitRuntimeCall("print", "(" + OBJECT + OBJECT + ")V");
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value != null) {
+      emit(stmt.value, Kind.OBJECT);
+    } else {
+      code.op(Code.ACONST_NULL);
+    }
+    code.op(Code.ARETURN);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    LocalVar local = locals.get(stmt);
+    if (stmt.initializer != null) {
+      emit(stmt.initializer, local.numeric ? Kind.DOUBLE : Kind.OBJECT);
+    } else {
+      code.op(Code.ACONST_NULL);
+    }
+    store(local);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    Label start = new Label();
+    Label end = new Label();
+    code.bind(start);
+    emitCondition(stmt.condition);
+    code.jump(Code.IFEQ, end);
+    stmt.body.accept(this);
+    code.jump(Code.GOTO, start);
+    code.bind(end);
+    return null;
+  }
+
+  private void store(LocalVar local) {
+    if (local.numeric) {
+      code.dstore(local.index);
+    } else {
+      code.astore(local.index);
+    }
+  }
+
+  @Override
+  public Kind visitAssignExpr(Expr.Assign expr) {
+    LocalVar local = locals.get(expr);
+    if (local != null) {
+      Kind kind = local.numeric ? Kind.DOUBLE : Kind.OBJECT;
+      emit(expr.value, kind);
+      code.op(local.numeric ? Code.DUP2 : Code.DUP);
+      store(local);
+      return kind;
+    }
+
+    emit(expr.value, Kind.OBJECT);
+    code.op(Code.DUP);
+    Integer freeDepth = freeDepths.get(expr);
+    if (freeDepth != null) {
+      code.aload(CLOSURE);
+      code.iconst(freeDepth);
+      code.iconst(expr.slot);
+      emitRuntimeCall("assignAt", "(" + OBJECT + OBJECT + "II)V");
+    } else {
+      code.aload(INTERPRETER);
+      emitConstant(expr.name);
+      emitRuntimeCall("assignGlobal", "(" + OBJECT + OBJECT + OBJECT + ")V");
+    }
+    return Kind.OBJECT;
+  }
+
+  @Override
+  public Kind visitBinaryExpr(Expr.Binary expr) {
+    boolean numbers = kindOf(expr.left) == Kind.DOUBLE && kindOf(expr.right) == Kind.DOUBLE;
+    Kind operands = numbers ? Kind.DOUBLE : Kind.OBJECT;
+
+    switch (expr.operator.type) {
+      case MINUS:
+      case STAR:
+      case SLASH:
+        emit(expr.left, operands);
+        emit(expr.right, operands);
+        if (numbers && expr.operator.type == TokenType.MINUS) {
+          code.op(Code.DSUB);
+        } else if (numbers && expr.operator.type == TokenType.STAR) {
+          code.op(Code.DMUL);
+        } else if (numbers) {
+          emitConstant(expr.operator);
+          emitRuntimeCall("divide", "(DD" + OBJECT + ")D");
+        } else {
+          String name = expr.operator.type == TokenType.MINUS ? "subtract"
+            : expr.operator.type == TokenType.STAR ? "multiply" : "divide";
+          emitConstant(expr.operator);
+          emitRuntimeCall(name, "(" + OBJECT + OBJECT + OBJECT + ")D");
+        }
+        return Kind.DOUBLE;
+      case PLUS:
+        emit(expr.left, operands);
+        emit(expr.right, operands);
+        if (numbers) {
+          code.op(Code.DADD);
+          return Kind.DOUBLE;
+        }
+        code.aload(INTERPRETER);
+        emitConstant(expr.operator);
+        emitRuntimeCall("add", "(" + OBJECT + OBJECT + OBJECT + OBJECT + ")" + OBJECT);
+        return Kind.OBJECT;
+      case GREATER:
+      case GREATER_EQUAL:
+      case LESS:
+      case LESS_EQUAL:
+        emit(expr.left, operands);
+        emit(expr.right, operands);
+        if (numbers) {
+          emitComparison(expr.operator.type);
+        } else {
+          emitConstant(expr.operator);
+          emitRuntimeCall(comparisonHelper(expr.operator.type), "(" + OBJECT + OBJECT + OBJECT + ")Z");
+        }
+        return Kind.BOOLEAN;
+      case BANG_EQUAL:
+        emit(expr.left, Kind.OBJECT);
+        emit(expr.right, Kind.OBJECT);
+        emitRuntimeCall("notEqual", "(" + OBJECT + OBJECT + ")Z");
+        return Kind.BOOLEAN;
+      default:
+        // same as the Interpreter, any other operator evaluates both sides and comes out as nil
+        pop(expr.left.accept(this));
+        pop(expr.right.accept(this));
+        code.op(Code.ACONST_NULL);
+        return Kind.OBJECT;
+    }
+  }
+
+  private void emitComparison(TokenType type) {
+    // the same dcmpl/dcmpg choices javac makes, so NaN compares false either way
+    Label isFalse = new Label();
+    Label end = new Label();
+    switch (type) {
+      case GREATER:
+        code.op(Code.DCMPL);
+        code.jump(Code.IFLE, isFalse);
+        break;
+      case GREATER_EQUAL:
+        code.op(Code.DCMPL);
+        code.jump(Code.IFLT, isFalse);
+        break;
+      case LESS:
+        code.op(Code.DCMPG);
+        code.jump(Code.IFGE, isFalse);
+        break;
+      default:
+        code.op(Code.DCMPG);
+        code.jump(Code.IFGT, isFalse);
+        break;
+    }
+    code.op(Code.ICONST_1);
+    code.jump(Code.GOTO, end);
+    code.bind(isFalse);
+    code.op(Code.ICONST_0);
+    code.bind(end);
+  }
+
+  private String comparisonHelper(TokenType type) {
+    switch (type) {
+      case GREATER:
+        return "greater";
+      case GREATER_EQUAL:
+        return "greaterEqual";
+      case LESS:
+        return "less";
+      default:
+        return "lessEqual";
+    }
+  }
+
+  @Override
+  public Kind visitCallExpr(Expr.Call expr) {
+    emit(expr.callee, Kind.OBJECT);
+    code.iconst(expr.arguments.size());
+    code.anewarray("java/lang/Object");
+    for (int i = 0; i < expr.arguments.size(); i++) {
+      code.op(Code.DUP);
+      code.iconst(i);
+      emit(expr.arguments.get(i), Kind.OBJECT);
+      code.op(Code.AASTORE);
+    }
+    code.aload(INTERPRETER);
+    emitConstant(expr.paren);
+    emitRuntimeCall("call", "(" + OBJECT + "[" + OBJECT + OBJECT + OBJECT + ")" + OBJECT);
+    return Kind.OBJECT;
+  }
+
+  @Override
+  public Kind visitGetExpr(Expr.Get expr) {
+    throw new Unsupported();
+  }
+
+  @Override
+  public Kind visitGroupingExpr(Expr.Grouping expr) {
+    return expr.expression.accept(this);
+  }
+
+  @Override
+  public Kind visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value instanceof Double) {
+      code.ldc((double)expr.value);
+      return Kind.DOUBLE;
+    } else if (expr.value instanceof Boolean) {
+      code.op((boolean)expr.value ? Code.ICONST_1 : Code.ICONST_0);
+      return Kind.BOOLEAN;
+    } else if (expr.value instanceof String) {
+      code.ldc((String)expr.value);
+    } else {
+      code.op(Code.ACONST_NULL);
+    }
+    return Kind.OBJECT;
+  }
+
+  @Override
+  public Kind visitSetExpr(Expr.Set expr) {
+    throw new Unsupported();
+  }
+
+  @Override
+  public Kind visitSuperExpr(Expr.Super expr) {
+    throw new Unsupported();
+  }
+
+  @Override
+  public Kind visitThisExpr(Expr.This expr) {
+    throw new Unsupported();
+  }
+
+  @Override
+  public Kind visitUnaryExpr(Expr.Unary expr) {
+    if (expr.operator.type == TokenType.MINUS) {
+      if (kindOf(expr.right) == Kind.DOUBLE) {
+        emit(expr.right, Kind.DOUBLE);
+        code.op(Code.DNEG);
+      } else {
+        emit(expr.right, Kind.OBJECT);
+        emitConstant(expr.operator);
+        emitRuntimeCall("negate", "(" + OBJECT + OBJECT + ")D");
+      }
+      return Kind.DOUBLE;
+    }
+
+    // the Interpreter hands back the operand's truthiness as is
+    emitCondition(expr.right);
+    return Kind.BOOLEAN;
+  }
+
+  @Override
+  public Kind visitLogicalExpr(Expr.Logical expr) {
+    Label end = new Label();
+    emit(expr.left, Kind.OBJECT);
+    code.op(Code.DUP);
+    emitRuntimeCall("isTruthy", "(" + OBJECT + ")Z");
+    code.jump(expr.operator.type == TokenType.OR ? Code.IFNE : Code.IFEQ, end);
+    code.op(Code.POP);
+    emit(expr.right, Kind.OBJECT);
+    code.bind(end);
+    return Kind.OBJECT;
+  }
+
+  @Override
+  public Kind visitVariableExpr(Expr.Variable expr) {
+    LocalVar local = locals.get(expr);
+    if (local != null) {
+      if (local.numeric) {
+        code.dload(local.index);
+        return Kind.DOUBLE;
+      }
+      code.aload(local.index);
+      return Kind.OBJECT;
+    }
+
+    Integer freeDepth = freeDepths.get(expr);
+    if (freeDepth != null) {
+      code.aload(CLOSURE);
+      code.iconst(freeDepth);
+      code.iconst(expr.slot);
+      emitRuntimeCall("getAt", "(" + OBJECT + "II)" + OBJECT);
+    } else {
+      code.aload(INTERPRETER);
+      emitConstant(expr.name);
+      emitRuntimeCall("getGlobal", "(" + OBJECT + OBJECT + ")" + OBJECT);
+    }
+    return Kind.OBJECT;
+  }
+}
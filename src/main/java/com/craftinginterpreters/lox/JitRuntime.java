@@ -0,0 +1,94 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/**
+ * Everything compiled code calls back into. Each helper does exactly what the Interpreter does for the same node, so
+ * compiled and interpreted code fail in the same way with the same messages.
+ */
+public final class JitRuntime {
+  private JitRuntime() {
+  }
+
+  public static Object getGlobal(Object interpreter, Object name) {
+    return ((Interpreter)interpreter).globals.get((Token)name);
+  }
+
+  public static void assignGlobal(Object value, Object interpreter, Object name) {
+    ((Interpreter)interpreter).globals.assign((Token)name, value);
+  }
+
+  public static Object getAt(Object closure, int depth, int slot) {
+    return ((Environment)closure).getAt(depth, slot);
+  }
+
+  public static void assignAt(Object value, Object closure, int depth, int slot) {
+    ((Environment)closure).assignAt(depth, slot, value);
+  }
+
+  public static Object call(Object callee, Object[] arguments, Object interpreter, Object paren) {
+    return ((Interpreter)interpreter).call(callee, Arrays.asList(arguments), (Token)paren);
+  }
+
+  public static void print(Object interpreter, Object value) {
+    ((Interpreter)interpreter).print(value);
+  }
+
+  public static Object add(Object left, Object right, Object interpreter, Object operator) {
+    return ((Interpreter)interpreter).add(left, right, (Token)operator);
+  }
+
+  public static double subtract(Object left, Object right, Object operator) {
+    Interpreter.checkNumberOperands((Token)operator, left, right);
+    return (double)left - (double)right;
+  }
+
+  public static double multiply(Object left, Object right, Object operator) {
+    Interpreter.checkNumberOperands((Token)operator, left, right);
+    return (double)left * (double)right;
+  }
+
+  public static double divide(Object left, Object right, Object operator) {
+    Interpreter.checkNumberOperands((Token)operator, left, right);
+    Interpreter.checkDivisibleByZero((Token)operator, right);
+    return (double)left / (double)right;
+  }
+
+  public static double divide(double left, double right, Object operator) {
+    Interpreter.checkDivisibleByZero((Token)operator, right);
+    return left / right;
+  }
+
+  public static double negate(Object operand, Object operator) {
+    Interpreter.checkNumberOperand((Token)operator, operand);
+    return -(double)operand;
+  }
+
+  public static boolean greater(Object left, Object right, Object operator) {
+    Interpreter.checkNumberOperands((Token)operator, left, right);
+    return (double)left > (double)right;
+  }
+
+  public static boolean greaterEqual(Object left, Object right, Object operator) {
+    Interpreter.checkNumberOperands((Token)operator, left, right);
+    return (double)left >= (double)right;
+  }
+
+  public static boolean less(Object left, Object right, Object operator) {
+    Interpreter.checkNumberOperands((Token)operator, left, right);
+    return (double)left < (double)right;
+  }
+
+  public static boolean lessEqual(Object left, Object right, Object operator) {
+    Interpreter.checkNumberOperands((Token)operator, left, right);
+    return (double)left <= (double)right;
+  }
+
+  public static boolean notEqual(Object left, Object right) {
+    return !Interpreter.isEqual(left, right);
+  }
+
+  public static boolean isTruthy(Object value) {
+    return Interpreter.isTruthy(value);
+  }
+}
@@ -3,91 +3,126 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Lox {
-  private static final Interpreter interpreter = new Interpreter();
-  static boolean hadError = false;
-  static boolean hadRuntimeError = false;
-
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("USAGE: SCREAM [SCRIPT]");
-      System.exit(64);
-    } else if (args.length == 1) {
-      runFile(args[0]);
-    } else {
-      runPrompt();
+    // run on the bytecode VM instead of walking the tree, picked with --engine=vm
+    boolean useVm = false;
+    // where to keep resolved trees between runs, picked with --cache=DIR
+    ScriptCache cache = null;
+    // time the script with --profile, or sample it with --profile=sample, see Profiler
+    Profiler profiler = null;
+    // where to write the profile's collapsed stacks, picked with --profile-stacks=FILE
+    String stacks = null;
+    List<String> scripts = new ArrayList<>();
+    for (String arg : args) {
+      if (arg.equals("--engine=vm")) {
+        useVm = true;
+      } else if (arg.equals("--engine=tree")) {
+        useVm = false;
+      } else if (arg.startsWith("--cache=")) {
+        cache = new ScriptCache(Paths.get(arg.substring("--cache=".length())));
+      } else if (arg.equals("--profile")) {
+        profiler = new Profiler(false);
+      } else if (arg.equals("--profile=sample")) {
+        profiler = new Profiler(true);
+      } else if (arg.startsWith("--profile-stacks=")) {
+        stacks = arg.substring("--profile-stacks=".length());
+      } else if (arg.startsWith("--")) {
+        usage();
+      } else {
+        scripts.add(arg);
+      }
     }
-  }
-
-  private static void runFile(String path) throws IOException {
-    byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
 
-    if (hadError) {
-      System.exit(65);
+    if (stacks != null && profiler == null) {
+      profiler = new Profiler(false);
     }
-    if (hadRuntimeError) {
-      System.exit(70);
+    // the VM and the REPL can't be profiled
+    if (profiler != null && (useVm || scripts.size() != 1)) {
+      usage();
     }
-  }
-
-  private static void runPrompt() throws IOException {
-    InputStreamReader input = new InputStreamReader(System.in);
-    BufferedReader reader = new BufferedReader(input);
 
-    for (;;) {
-      System.out.print("AHHHHHHH > ");
-      run(reader.readLine());
-      hadError = false;
+    ScreamEngine engine = new ScreamEngine(new ScreamContext(), useVm);
+    if (profiler != null) {
+      engine.profile(profiler);
+    }
+    if (scripts.size() > 1) {
+      usage();
+    } else if (scripts.size() == 1) {
+      runFile(engine, cache, scripts.get(0), profiler, stacks);
+    } else {
+      runPrompt(engine);
     }
   }
 
-  private static void run(String source) {
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-
-    Parser parser = new Parser(tokens);
-    List<Stmt> statements = parser.parse();
+  private static void usage() {
+    System.out.println("USAGE: SCREAM [--ENGINE=TREE|VM] [--CACHE=DIR] [--PROFILE[=SAMPLE]] [--PROFILE-STACKS=FILE] [SCRIPT]");
+    System.exit(64);
+  }
 
-    if (hadError) {
-      return;
+  private static void runFile(ScreamEngine engine, ScriptCache cache, String path, Profiler profiler, String stacks)
+      throws IOException {
+    CompiledScript script;
+    if (cache == null) {
+      // scanned straight from the file, a chunk at a time
+      try (Reader reader = new InputStreamReader(Files.newInputStream(Paths.get(path)), Charset.defaultCharset())) {
+        script = engine.compile(reader);
+      }
+    } else {
+      // the cache is keyed on the whole source
+      byte[] bytes = Files.readAllBytes(Paths.get(path));
+      script = engine.compile(new String(bytes, Charset.defaultCharset()), cache);
     }
-
-    Resolver resolver = new Resolver(interpreter);
-    resolver.resolve(statements);
-
-    // Stop if there was a resolution error.
-    if (hadError) {
-      return;
+    if (script != null) {
+      if (profiler != null) {
+        profiler.start();
+      }
+      engine.run(script);
+      if (profiler != null) {
+        profiler.stop();
+        profiler.report(System.err);
+        if (stacks != null) {
+          try (Writer writer = Files.newBufferedWriter(Paths.get(stacks), Charset.defaultCharset())) {
+            profiler.writeCollapsedStacks(writer);
+          }
+        }
+      }
     }
 
-    interpreter.interpret(statements);
+    int status = exitCode(engine.context());
+    if (status != 0) {
+      System.exit(status);
+    }
   }
 
-  static void error(int line, String message) {
-    report(line, "", message);
+  /**
+   * @return the exit code for a script that ran in the given context, following sysexits.h
+   */
+  static int exitCode(ScreamContext context) {
+    if (context.hadError()) {
+      return 65;
+    }
+    if (context.hadRuntimeError()) {
+      return 70;
+    }
+    return 0;
   }
 
-  private static void report(int line, String where, String message) {
-    System.err.println("[LINE " + line + "] ERROR" + where + ": " + message);
-    hadError = true;
-  }
+  private static void runPrompt(ScreamEngine engine) throws IOException {
+    InputStreamReader input = new InputStreamReader(System.in);
+    BufferedReader reader = new BufferedReader(input);
 
-  static void error(Token token, String message){
-    if (token.type == TokenType.EOF) {
-      report(token.line, " AT END", message);
-    } else {
-      report(token.line, " AT '" + token.lexeme + "'", message);
+    for (;;) {
+      System.out.print("AHHHHHHH > ");
+      engine.run(reader.readLine());
     }
   }
-
-  static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() + "\n[LINE " + error.token.line + "]");
-    hadRuntimeError = true;
-  }
 }
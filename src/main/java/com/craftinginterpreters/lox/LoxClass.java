@@ -7,6 +7,8 @@ public class LoxClass implements LoxCallable {
     final String name;
     final Map<String, LoxFunction> methods;
     final LoxClass superclass;
+    // every instance starts out with this shape, see Shape
+    final Shape rootShape = new Shape();
 
     LoxClass(String name, LoxClass superclass,  Map<String, LoxFunction> methods) {
         this.name = name;
@@ -40,10 +42,13 @@ public class LoxClass implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        if (interpreter.metrics != null) {
+            interpreter.metrics.instances++;
+        }
         LoxInstance instance = new LoxInstance(this);
         LoxFunction initializer = findMethod("INIT");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.callMethod(interpreter, instance, arguments);
         }
 
         return instance;
@@ -3,6 +3,11 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 public class LoxFunction implements LoxCallable {
+  // calls before a function's body is handed to the JIT, 0 turns it off
+  private static final int JIT_THRESHOLD = Integer.getInteger("scream.jit.threshold", 100);
+  // failed type guards before compiled code is thrown away for good
+  private static final int MAX_DEOPTIMIZATIONS = 100;
+
   private final Stmt.Function declaration;
   private final Environment closure;
   private final boolean isInitializer;
@@ -13,14 +18,27 @@ public class LoxFunction implements LoxCallable {
     this.isInitializer = isInitializer;
   }
 
-  LoxFunction bind(LoxInstance instance) {
+  LoxFunction bind(LoxInstance instance, Interpreter interpreter) {
+    // for isInitializer, pass on the original method's value
+    return new LoxFunction(declaration, bindThis(instance, interpreter), isInitializer);
+  }
+
+  private Environment bindThis(LoxInstance instance, Interpreter interpreter) {
     // Create a new env nestled in the original method's closure, a sort of a closure in a closure
     // Becomes the parent of the method body's environment (second diagram with the new 'synthetic' environment)
-    Environment environment = new Environment(closure);
+    interpreter.countEnvironment();
+    Environment environment = new Environment(closure, 1);
     // Declare 'this' in the new parent environment and bind it to the provided instance
     environment.define("THIS", instance);
-    // for isInitializer, pass on the original method's value
-    return new LoxFunction(declaration, environment, isInitializer);
+    return environment;
+  }
+
+  /**
+   * Calls a method on an instance without creating the bound LoxFunction that bind() would, for when the method is
+   * called right away instead of being used as a value.
+   */
+  Object callMethod(Interpreter interpreter, LoxInstance instance, List<Object> arguments) {
+    return invoke(interpreter, arguments, bindThis(instance, interpreter));
   }
 
   @Override
@@ -30,23 +48,68 @@ public class LoxFunction implements LoxCallable {
 
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) {
-    Environment environment = new Environment(closure);
-    for (int i = 0; i < arguments.size(); i++) {
-      environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+    return invoke(interpreter, arguments, closure);
+  }
+
+  private Object invoke(Interpreter interpreter, List<Object> arguments, Environment closure) {
+    if (interpreter.metrics != null) {
+      interpreter.metrics.calls++;
     }
+    Profiler profiler = interpreter.profiler;
+    if (profiler == null) {
+      return run(interpreter, arguments, closure);
+    }
+    profiler.enterFunction(declaration);
     try {
-      interpreter.executeBlock(declaration.body, environment);
-    } catch (Return returnValue) {
-      if (isInitializer) {
-        return closure.getAt(0, "THIS");
+      return run(interpreter, arguments, closure);
+    } finally {
+      profiler.exitFunction();
+    }
+  }
+
+  private Object run(Interpreter interpreter, List<Object> arguments, Environment closure) {
+    // counted on the declaration, so every closure and bound method made from it shares the compiled code. Nothing is
+    // compiled while profiling or keeping metrics, since compiled code doesn't go through Interpreter.execute for
+    // either to see its statements
+    if (interpreter.profiler == null && interpreter.metrics == null && declaration.calls < JIT_THRESHOLD && ++declaration.calls == JIT_THRESHOLD) {
+      declaration.compiled = JitCompiler.compile(declaration);
+    }
+    CompiledFunction compiled = declaration.compiled;
+    if (compiled != null) {
+      if (compiled.accepts(arguments)) {
+        Object result = compiled.invoke(interpreter, closure, arguments);
+        return isInitializer ? closure.getAt(0, 0) : result;
+      }
+      if (++declaration.deoptimizations == MAX_DEOPTIMIZATIONS) {
+        declaration.compiled = null;
       }
-      return returnValue.value;
     }
 
-    if (isInitializer) {
-      return closure.getAt(0, "THIS");
+    // only parameters and variables that a closure captures need an Environment, the rest go in the call's frame
+    Environment environment = closure;
+    if (declaration.scoped) {
+      interpreter.countEnvironment();
+      environment = new Environment(closure, declaration.params.size());
+    }
+    int previousFrame = interpreter.enterFrame(declaration.frameSize);
+    try {
+      int slot = 0;
+      for (int i = 0; i < arguments.size(); i++) {
+        if (declaration.capturedParams != null && declaration.capturedParams[i]) {
+          environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+        } else {
+          interpreter.defineLocal(slot++, arguments.get(i));
+        }
+      }
+      Object value = interpreter.executeBody(declaration.body, environment);
+
+      if (isInitializer) {
+        return closure.getAt(0, 0);
+      }
+      return value;
+    } finally {
+      interpreter.exitFrame(previousFrame);
     }
-    return null;
   }
 
   @Override
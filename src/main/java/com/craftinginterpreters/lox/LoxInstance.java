@@ -1,20 +1,25 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 // Runtime representation of a LoxClass
 public class LoxInstance {
-    private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private static final Object[] NO_VALUES = new Object[0];
+
+    final LoxClass klass;
+    // field names live in the shape, which is shared with other instances, only the values are per instance
+    Shape shape;
+    private Object[] values = NO_VALUES;
 
     public LoxInstance(LoxClass klass) {
         this.klass = klass;
+        this.shape = klass.rootShape;
     }
 
-    Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+    Object get(Token name, Interpreter interpreter) {
+        int index = shape.indexOf(name.lexeme);
+        if (index >= 0) {
+            return values[index];
         }
 
         LoxFunction method = klass.findMethod(name.lexeme);
@@ -22,14 +27,42 @@ public class LoxInstance {
         // Semi-confusingly enough, we're passing in the Java 'this' as an arg to bind()
         if (method != null) {
             // 'this' (the arg) is the function that we will use to bind the keyword 'this' (in JLox to)
-            return method.bind(this);
+            return method.bind(this, interpreter);
         }
         // Design decision - throw instead of implicitly returning nil
         throw new RuntimeError(name, "UNDEFINED PROPERTY '" + name.lexeme + "'!");
     }
 
+    boolean hasField(String name) {
+        return shape.indexOf(name) >= 0;
+    }
+
     void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        int index = shape.indexOf(name.lexeme);
+        if (index < 0) {
+            addField(shape.withField(name.lexeme), value);
+        } else {
+            values[index] = value;
+        }
+    }
+
+    // for callers that already know where a field lives from the shape, see InlineCache
+    Object getField(int index) {
+        return values[index];
+    }
+
+    void setField(int index, Object value) {
+        values[index] = value;
+    }
+
+    // moves to a shape that's this one plus the new field
+    void addField(Shape shape, Object value) {
+        int index = shape.size() - 1;
+        if (index >= values.length) {
+            values = Arrays.copyOf(values, Math.max(4, values.length * 2));
+        }
+        this.shape = shape;
+        values[index] = value;
     }
 
     @Override
@@ -0,0 +1,40 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Turns numbers into the text PRINT and + give for them: whole numbers without the ".0" Java adds, everything else the
+ * way Double.toString has it.
+ *
+ * Whole numbers are formatted as ints, without going through Double.toString and cutting its ".0" off again, and the
+ * smallest ones, which are printed the most, are only ever formatted once.
+ */
+public final class Numbers {
+  private static final String[] SMALL = new String[1024];
+  // Double.toString switches to scientific notation from here on, e.g. 1.0E7, which doesn't lose its ".0"
+  private static final double PLAIN_LIMIT = 1e7;
+  private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0.0);
+
+  static {
+    for (int i = 0; i < SMALL.length; i++) {
+      SMALL[i] = Integer.toString(i);
+    }
+  }
+
+  private Numbers() {
+  }
+
+  public static String toString(double number) {
+    if (number > -PLAIN_LIMIT && number < PLAIN_LIMIT) {
+      int whole = (int)number;
+      if (whole == number && Double.doubleToRawLongBits(number) != NEGATIVE_ZERO) {
+        return whole >= 0 && whole < SMALL.length ? SMALL[whole] : Integer.toString(whole);
+      }
+    }
+    if (number == 0) {
+      // -0.0, which loses its ".0" like any other whole number
+      return "-0";
+    }
+    // Double.toString already gives the shortest text that reads back as the same number on recent JDKs, and neither
+    // a fraction nor scientific notation ends in ".0"
+    return Double.toString(number);
+  }
+}
@@ -1,7 +1,7 @@
 package com.craftinginterpreters.lox;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import static com.craftinginterpreters.lox.TokenType.*;
@@ -9,11 +9,20 @@ import static com.craftinginterpreters.lox.TokenType.*;
 class Parser {
   private static class ParseError extends RuntimeException {}
 
-  private final List<Token> tokens;
-  private int current = 0;
-
-  Parser(List<Token> tokens) {
+  // pulled from one at a time, usually straight from the Scanner, and never read past the EOF token
+  private final Iterator<Token> tokens;
+  private final ScreamContext context;
+  // the token being looked at, and the one consumed just before it; nothing further back is held on to
+  private Token current;
+  private Token previous;
+  // parse errors are held back until the scanner is done, so its errors are still reported ahead of them
+  private final List<Token> errorTokens = new ArrayList<>();
+  private final List<String> errorMessages = new ArrayList<>();
+
+  Parser(Iterator<Token> tokens, ScreamContext context) {
     this.tokens = tokens;
+    this.context = context;
+    this.current = tokens.next();
   }
 
   List<Stmt> parse() {
@@ -22,9 +31,27 @@ class Parser {
       statements.add(declaration());
     }
 
+    reportErrors();
     return statements;
   }
 
+  /**
+   * Parses a single top-level declaration, for callers that take a script apart one declaration at a time (see
+   * ScriptDocument). Its errors are held back until {@link #reportErrors()}, the same as with parse.
+   * @return the declaration, or null if it has errors
+   */
+  Stmt nextDeclaration() {
+    return declaration();
+  }
+
+  void reportErrors() {
+    for (int i = 0; i < errorTokens.size(); i++) {
+      context.error(errorTokens.get(i), errorMessages.get(i));
+    }
+    errorTokens.clear();
+    errorMessages.clear();
+  }
+
   private Stmt declaration() {
     try {
       if (match(CLASS)) {
@@ -133,20 +160,13 @@ class Parser {
 
     Stmt body = statement();
 
-    if (increment != null) {
-      body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
-    }
-
     if (condition == null) {
       condition = new Expr.Literal(true);
     }
-    body = new Stmt.While(condition, body);
 
-    if(initializer != null) {
-      body = new Stmt.Block(Arrays.asList(initializer, body));
-    }
-
-    return body;
+    // kept as a loop of its own rather than desugared into blocks around a WHILE, so the loop variable's scope is
+    // only created once and the increment runs in it directly
+    return new Stmt.For(initializer, condition, increment, body);
   }
 
   private Stmt ifStatement() {
@@ -164,9 +184,10 @@ class Parser {
   }
 
   private Stmt printStatement() {
+    Token keyword = previous();
     Expr value = expression();
     consume(SEMICOLON, "EXPECT ';' AFTER VALUE!");
-    return new Stmt.Print(value);
+    return new Stmt.Print(keyword, value);
   }
 
   private Stmt returnStatement() {
@@ -420,25 +441,27 @@ class Parser {
    */
   private Token advance() {
     if (!isAtEnd()) {
-      current++;
+      previous = current;
+      current = tokens.next();
     }
     return previous();
   }
 
-  private boolean isAtEnd() {
+  boolean isAtEnd() {
     return peek().type == EOF;
   }
   
   private Token peek() {
-    return tokens.get(current);
+    return current;
   }
 
   private Token previous() {
-    return tokens.get(current - 1);
+    return previous;
   }
 
   private ParseError error(Token token, String message) {
-    Lox.error(token, message);
+    errorTokens.add(token);
+    errorMessages.add(message);
     return new ParseError();
   }
 
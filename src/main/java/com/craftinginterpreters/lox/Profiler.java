@@ -0,0 +1,486 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Works out where a script spends its time, for --profile. The Interpreter tells it about every statement it executes
+ * and every function call, so it can report per function and per line, and write out the time spent under each call
+ * path as collapsed stacks for flame graph tools.
+ *
+ * Instrumented profiling times every statement and call, which is exact but slows the script down a good deal.
+ * Sampling instead only keeps track of which function and line the script is on, and a thread of its own looks at
+ * that every millisecond or so (-Dscream.profile.interval, in microseconds), which costs far less.
+ */
+final class Profiler {
+  private static final int REPORT_ROWS = 20;
+  private static final long SAMPLE_INTERVAL = TimeUnit.MICROSECONDS.toNanos(
+    Integer.getInteger("scream.profile.interval", 1000));
+
+  // one function, or the top level of the script
+  private static final class Function {
+    final String name;
+    long calls = 0;
+    long totalNanos = 0;
+    long selfNanos = 0;
+    long selfBytes = 0;
+    long samples = 0;
+    long selfSamples = 0;
+    // calls of it still on the stack, only the outermost one adds to its total so recursion isn't counted twice
+    int active = 0;
+    // the last sample that counted it, so a recursive function counts once per sample
+    long sampled = -1;
+
+    Function(String name) {
+      this.name = name;
+    }
+  }
+
+  private static final class Line {
+    final int line;
+    long count = 0;
+    long selfNanos = 0;
+    long samples = 0;
+
+    Line(int line) {
+      this.line = line;
+    }
+  }
+
+  // a path of calls, as a node in the tree of all the paths seen so far
+  private static final class Path {
+    final Path caller;
+    final Function function;
+    final Map<Function, Path> callees = new HashMap<>();
+    long selfNanos = 0;
+    long samples = 0;
+
+    Path(Path caller, Function function) {
+      this.caller = caller;
+      this.function = function;
+    }
+  }
+
+  // a call in progress
+  private static final class Frame {
+    final Frame caller;
+    final Function function;
+    final Path path;
+    final long start;
+
+    Frame(Frame caller, Function function, Path path, long start) {
+      this.caller = caller;
+      this.function = function;
+      this.path = path;
+      this.start = start;
+    }
+  }
+
+  private final boolean sampling;
+  // null on JVMs that can't count what a thread allocates, which only report time
+  private final com.sun.management.ThreadMXBean threads = allocationCounter();
+  private final long thread = Thread.currentThread().getId();
+
+  private final Function script = new Function("SCRIPT");
+  private final Map<Stmt.Function, Function> functions = new IdentityHashMap<>();
+  private final Path root = new Path(null, script);
+  private final Map<Stmt, Integer> statementLines = new IdentityHashMap<>();
+  private Line[] lines = new Line[256];
+
+  // written by the interpreter's thread, and read by the sampler's. The line is a plain field since it changes with
+  // every statement, at worst a sample sees it a statement late
+  private volatile Frame top;
+  private int currentLine = 0;
+  // the lines of the statements around the one being executed
+  private int[] enclosingLines = new int[64];
+  private int depth = 0;
+
+  // when the time and allocations so far were last handed out to whatever was running
+  private long last;
+  private long lastBytes;
+  private long started;
+  private long stopped;
+
+  private Thread sampler;
+  private volatile boolean running;
+  private long sampleCount = 0;
+
+  Profiler(boolean sampling) {
+    this.sampling = sampling;
+  }
+
+  private static com.sun.management.ThreadMXBean allocationCounter() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemorySupported()) {
+      return (com.sun.management.ThreadMXBean)threads;
+    }
+    return null;
+  }
+
+  void start() {
+    started = System.nanoTime();
+    last = started;
+    if (threads != null) {
+      lastBytes = threads.getThreadAllocatedBytes(thread);
+    }
+    top = new Frame(null, script, root, started);
+    script.calls = 1;
+    if (sampling) {
+      running = true;
+      sampler = new Thread(this::sample, "SCREAM PROFILER");
+      sampler.setDaemon(true);
+      sampler.start();
+    }
+  }
+
+  void stop() {
+    if (sampling) {
+      running = false;
+      try {
+        sampler.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    } else {
+      charge();
+      chargeBytes();
+    }
+    stopped = System.nanoTime();
+    script.totalNanos = stopped - started;
+  }
+
+  void enterStatement(Stmt stmt) {
+    if (!sampling) {
+      charge();
+    }
+    if (depth == enclosingLines.length) {
+      enclosingLines = Arrays.copyOf(enclosingLines, depth * 2);
+    }
+    enclosingLines[depth++] = currentLine;
+    int line = lineOf(stmt);
+    // one without a token of its own is part of the statement around it
+    if (line > 0) {
+      currentLine = line;
+    }
+    if (!sampling && currentLine > 0) {
+      line(currentLine).count++;
+    }
+  }
+
+  void exitStatement() {
+    if (!sampling) {
+      charge();
+    }
+    currentLine = enclosingLines[--depth];
+  }
+
+  void enterFunction(Stmt.Function declaration) {
+    Function function = functions.get(declaration);
+    if (function == null) {
+      function = new Function(declaration.name.lexeme + ":" + declaration.name.line);
+      functions.put(declaration, function);
+    }
+    function.calls++;
+
+    Frame caller = top;
+    Path path = caller.path.callees.get(function);
+    if (path == null) {
+      path = new Path(caller.path, function);
+      caller.path.callees.put(function, path);
+    }
+    if (sampling) {
+      top = new Frame(caller, function, path, 0);
+      return;
+    }
+
+    charge();
+    chargeBytes();
+    function.active++;
+    top = new Frame(caller, function, path, last);
+  }
+
+  void exitFunction() {
+    Frame frame = top;
+    if (!sampling) {
+      charge();
+      chargeBytes();
+      if (--frame.function.active == 0) {
+        frame.function.totalNanos += last - frame.start;
+      }
+    }
+    top = frame.caller;
+  }
+
+  // hands the time since the last event to the function, call path and line that were running
+  private void charge() {
+    long now = System.nanoTime();
+    long elapsed = now - last;
+    last = now;
+    Frame frame = top;
+    frame.function.selfNanos += elapsed;
+    frame.path.selfNanos += elapsed;
+    line(currentLine).selfNanos += elapsed;
+  }
+
+  // only read around calls, since it takes a good deal longer than reading the clock
+  private void chargeBytes() {
+    if (threads == null) {
+      return;
+    }
+    long bytes = threads.getThreadAllocatedBytes(thread);
+    top.function.selfBytes += bytes - lastBytes;
+    lastBytes = bytes;
+  }
+
+  private void sample() {
+    Map<Integer, Line> sampledLines = new HashMap<>();
+    while (running) {
+      LockSupport.parkNanos(SAMPLE_INTERVAL);
+      Frame frame = top;
+      int line = currentLine;
+      sampleCount++;
+      frame.function.selfSamples++;
+      frame.path.samples++;
+      for (Frame caller = frame; caller != null; caller = caller.caller) {
+        if (caller.function.sampled != sampleCount) {
+          caller.function.sampled = sampleCount;
+          caller.function.samples++;
+        }
+      }
+      sampledLines.computeIfAbsent(line, Line::new).samples++;
+    }
+    // handed over once the sampler is done, which join() makes visible to the interpreter's thread
+    for (Line line : sampledLines.values()) {
+      line(line.line).samples = line.samples;
+    }
+  }
+
+  private Line line(int line) {
+    if (line >= lines.length) {
+      lines = Arrays.copyOf(lines, Math.max(lines.length * 2, line + 1));
+    }
+    Line stats = lines[line];
+    if (stats == null) {
+      stats = new Line(line);
+      lines[line] = stats;
+    }
+    return stats;
+  }
+
+  private int lineOf(Stmt stmt) {
+    Integer line = statementLines.get(stmt);
+    if (line == null) {
+      line = stmt.accept(new Lines());
+      statementLines.put(stmt, line);
+    }
+    return line;
+  }
+
+  /**
+   * Prints the functions and lines that took the most time.
+   */
+  void report(PrintStream out) {
+    List<Function> all = new ArrayList<>(functions.values());
+    all.add(script);
+    List<Line> used = new ArrayList<>();
+    for (Line line : lines) {
+      if (line != null && line.line > 0) {
+        used.add(line);
+      }
+    }
+
+    if (sampling) {
+      out.println(String.format("PROFILE: %d SAMPLES OVER %.2f MS", sampleCount, (stopped - started) / 1e6));
+      all.sort(Comparator.comparingLong((Function function) -> function.selfSamples).reversed());
+      out.println(String.format("%-24s %10s %10s %8s %8s", "FUNCTION", "CALLS", "SAMPLES", "TOTAL %", "SELF %"));
+      for (Function function : all.subList(0, Math.min(REPORT_ROWS, all.size()))) {
+        out.println(String.format("%-24s %10d %10d %8.1f %8.1f", function.name, function.calls, function.samples,
+          percent(function.samples), percent(function.selfSamples)));
+      }
+      used.sort(Comparator.comparingLong((Line line) -> line.samples).reversed());
+      out.println(String.format("%-8s %10s %8s", "LINE", "SAMPLES", "SELF %"));
+      for (Line line : used.subList(0, Math.min(REPORT_ROWS, used.size()))) {
+        out.println(String.format("%-8d %10d %8.1f", line.line, line.samples, percent(line.samples)));
+      }
+      return;
+    }
+
+    out.println(String.format("PROFILE: %.2f MS", (stopped - started) / 1e6));
+    all.sort(Comparator.comparingLong((Function function) -> function.selfNanos).reversed());
+    out.println(String.format("%-24s %10s %10s %10s %12s", "FUNCTION", "CALLS", "TOTAL MS", "SELF MS", "SELF KB"));
+    for (Function function : all.subList(0, Math.min(REPORT_ROWS, all.size()))) {
+      out.println(String.format("%-24s %10d %10.2f %10.2f %12s", function.name, function.calls,
+        function.totalNanos / 1e6, function.selfNanos / 1e6, threads == null ? "N/A" : function.selfBytes / 1024));
+    }
+    used.sort(Comparator.comparingLong((Line line) -> line.selfNanos).reversed());
+    out.println(String.format("%-8s %10s %10s", "LINE", "COUNT", "SELF MS"));
+    for (Line line : used.subList(0, Math.min(REPORT_ROWS, used.size()))) {
+      out.println(String.format("%-8d %10d %10.2f", line.line, line.count, line.selfNanos / 1e6));
+    }
+  }
+
+  private double percent(long samples) {
+    return sampleCount == 0 ? 0 : 100.0 * samples / sampleCount;
+  }
+
+  /**
+   * Writes one line per call path, its functions from the outermost in separated by ';' and followed by the
+   * microseconds (or samples) spent in the innermost one, the format flamegraph.pl and speedscope read.
+   */
+  void writeCollapsedStacks(Writer out) throws IOException {
+    writeCollapsedStacks(out, root, root.function.name);
+  }
+
+  private void writeCollapsedStacks(Writer out, Path path, String stack) throws IOException {
+    long weight = sampling ? path.samples : TimeUnit.NANOSECONDS.toMicros(path.selfNanos);
+    if (weight > 0) {
+      out.write(stack + " " + weight + "\n");
+    }
+    for (Path callee : path.callees.values()) {
+      writeCollapsedStacks(out, callee, stack + ";" + callee.function.name);
+    }
+  }
+
+  // the line a statement starts on, from the first token found in it, or 0 if it has none (such as 1;)
+  private static final class Lines implements Stmt.Visitor<Integer>, Expr.Visitor<Integer> {
+    private int of(Stmt stmt) {
+      return stmt == null ? 0 : stmt.accept(this);
+    }
+
+    private int of(Expr expr) {
+      return expr == null ? 0 : expr.accept(this);
+    }
+
+    private static int either(int line, int otherwise) {
+      return line > 0 ? line : otherwise;
+    }
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt) {
+      for (Stmt statement : stmt.statements) {
+        int line = of(statement);
+        if (line > 0) {
+          return line;
+        }
+      }
+      return 0;
+    }
+
+    @Override
+    public Integer visitClassStmt(Stmt.Class stmt) {
+      return stmt.name.line;
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt) {
+      return of(stmt.expression);
+    }
+
+    @Override
+    public Integer visitForStmt(Stmt.For stmt) {
+      return either(of(stmt.initializer), either(of(stmt.condition), either(of(stmt.increment), of(stmt.body))));
+    }
+
+    @Override
+    public Integer visitFunctionStmt(Stmt.Function stmt) {
+      return stmt.name.line;
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt) {
+      return either(of(stmt.condition), of(stmt.thenBranch));
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt) {
+      return stmt.keyword.line;
+    }
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt) {
+      return stmt.keyword.line;
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt) {
+      return stmt.name.line;
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt) {
+      return either(of(stmt.condition), of(stmt.body));
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+      return expr.name.line;
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+      return either(of(expr.left), expr.operator.line);
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr) {
+      return either(of(expr.callee), expr.paren.line);
+    }
+
+    @Override
+    public Integer visitGetExpr(Expr.Get expr) {
+      return either(of(expr.object), expr.name.line);
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+      return of(expr.expression);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+      return 0;
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr) {
+      return either(of(expr.left), expr.operator.line);
+    }
+
+    @Override
+    public Integer visitSetExpr(Expr.Set expr) {
+      return either(of(expr.object), expr.name.line);
+    }
+
+    @Override
+    public Integer visitSuperExpr(Expr.Super expr) {
+      return expr.keyword.line;
+    }
+
+    @Override
+    public Integer visitThisExpr(Expr.This expr) {
+      return expr.keyword.line;
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+      return expr.operator.line;
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+      return expr.name.line;
+    }
+  }
+}
@@ -1,8 +1,12 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
@@ -19,37 +23,132 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         SUBCLASS,
     }
 
-    private final Interpreter interpreter;
+    // a local variable in a scope, along with where it lives at runtime: either a slot in its scope's Environment, or a
+    // slot in the frame of the function that declares it
+    private static class Local {
+        // null for 'this' and 'super'
+        final Token declaration;
+        final int slot;
+        final boolean onStack;
+        boolean defined = false;
+
+        Local(Token declaration, int slot, boolean onStack) {
+            this.declaration = declaration;
+            this.slot = slot;
+            this.onStack = onStack;
+        }
+    }
+
+    private static class Scope {
+        final Map<String, Local> locals = new HashMap<>();
+        // whether the scope gets an Environment at runtime, only those count towards a variable's depth
+        final boolean materialized;
+        int environmentSlots = 0;
+
+        Scope(boolean materialized) {
+            this.materialized = materialized;
+        }
+    }
+
     // tracks local block scopes.  vars at global level are more dynamic
     // if we don't find, we assume it must be global
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final ScreamContext context;
+    private final Stack<Scope> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
+    // index of the current function's outermost scope, anything in a scope below it belongs to an enclosing function
+    private int functionScope = 0;
+    // declarations referenced from a function nested inside the one that declares them, found by the first pass
+    private final Set<Token> captured = Collections.newSetFromMap(new IdentityHashMap<Token, Boolean>());
+    // false during the first pass, which only looks for captured variables. The second one knows where each local
+    // lives and stores that on the tree
+    private boolean addressing = false;
+    // the next free slot in the current function's frame
+    private int frameSize = 0;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    Resolver(ScreamContext context) {
+        this.context = context;
     }
 
-    private void beginScope() {
-        // Note: Inferred type with <> is diff from book
-        scopes.push(new HashMap<>());
+    private void beginScope(boolean materialized) {
+        scopes.push(new Scope(materialized));
     }
 
     private void endScope() {
         scopes.pop();
     }
 
-    private void declare(Token name) {
+    /**
+     * A scope inside a function only needs an Environment if a closure can see one of its variables, the rest live on
+     * the interpreter's value stack. Top level scopes always get one, their variables can outlive any frame.
+     */
+    private boolean needsEnvironment(List<Token> declarations) {
+        if (currentFunction == FunctionType.NONE) {
+            return true;
+        }
+        return isCaptured(declarations);
+    }
+
+    private boolean isCaptured(List<Token> declarations) {
+        for (Token declaration : declarations) {
+            if (captured.contains(declaration)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Token> declarations(List<Stmt> statements) {
+        List<Token> names = new ArrayList<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var) {
+                names.add(((Stmt.Var)statement).name);
+            } else if (statement instanceof Stmt.Function) {
+                names.add(((Stmt.Function)statement).name);
+            } else if (statement instanceof Stmt.Class) {
+                names.add(((Stmt.Class)statement).name);
+            }
+        }
+        return names;
+    }
+
+    private void error(Token token, String message) {
+        // the second pass walks the same tree, so it would only report everything twice
+        if (!addressing) {
+            context.error(token, message);
+        }
+    }
+
+    /**
+     * @return the frame slot the variable was given, or -1 if it lives in an Environment (or is a global)
+     */
+    private int declare(Token name) {
         if (scopes.isEmpty()) {
-            return;
+            return -1;
         }
 
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "VARIABLE WITH THIS NAME IS DECLARED IN THIS SCOPE!");
+        Scope scope = scopes.peek();
+        if (scope.locals.containsKey(name.lexeme)) {
+            error(name, "VARIABLE WITH THIS NAME IS DECLARED IN THIS SCOPE!");
         }
         // mark as 'not ready yet', it's not finished being initialized
-        scope.put(name.lexeme, false);
+        Local local;
+        if (currentFunction != FunctionType.NONE && !captured.contains(name)) {
+            local = new Local(name, frameSize++, true);
+        } else {
+            // slots are handed out in declaration order, which is the order the interpreter defines them in
+            local = new Local(name, scope.environmentSlots++, false);
+        }
+        scope.locals.put(name.lexeme, local);
+        return local.onStack ? local.slot : -1;
+    }
+
+    private void declareSynthetic(String name) {
+        // 'this' and 'super' are always the first (and only) variable in their scope
+        Scope scope = scopes.peek();
+        Local local = new Local(null, scope.environmentSlots++, false);
+        local.defined = true;
+        scope.locals.put(name, local);
     }
 
     private void define(Token name) {
@@ -58,21 +157,76 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
         // mark as ready now that we've gone and resolve the initializer if it exists
         // otherwise we basically set this to false, then true
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().locals.get(name.lexeme).defined = true;
+    }
+
+    /**
+     * An expression is numeric if it either evaluates to a number or fails with a runtime error, so the interpreter
+     * never has to box its value in between.
+     */
+    static boolean isNumeric(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            return ((Expr.Literal)expr).value instanceof Double;
+        } else if (expr instanceof Expr.Binary) {
+            return ((Expr.Binary)expr).numeric;
+        } else if (expr instanceof Expr.Unary) {
+            return ((Expr.Unary)expr).numeric;
+        } else if (expr instanceof Expr.Grouping) {
+            return ((Expr.Grouping)expr).numeric;
+        }
+        return false;
     }
 
     private void resolveLocal(Expr expr, Token name) {
+        int depth = 0;
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 -i);
+            Scope scope = scopes.get(i);
+            Local local = scope.locals.get(name.lexeme);
+            if (local != null) {
+                if (i < functionScope && local.declaration != null) {
+                    captured.add(local.declaration);
+                }
+                if (addressing) {
+                    store(expr, depth, local.slot, local.onStack);
+                }
                 return;
             }
+            if (scope.materialized) {
+                depth++;
+            }
         }
 
-        // Not found, assume global.
+        // Not found, assume global. Nodes start out with a depth of -1, which is what the interpreter checks for
+    }
+
+    // the resolution lives on the node itself, so it's thrown away along with the tree
+    private void store(Expr expr, int depth, int slot, boolean onStack) {
+        if (expr instanceof Expr.Variable) {
+            ((Expr.Variable) expr).depth = depth;
+            ((Expr.Variable) expr).slot = slot;
+            ((Expr.Variable) expr).onStack = onStack;
+        } else if (expr instanceof Expr.Assign) {
+            ((Expr.Assign) expr).depth = depth;
+            ((Expr.Assign) expr).slot = slot;
+            ((Expr.Assign) expr).onStack = onStack;
+        } else if (expr instanceof Expr.This) {
+            ((Expr.This) expr).depth = depth;
+            ((Expr.This) expr).slot = slot;
+        } else if (expr instanceof Expr.Super) {
+            ((Expr.Super) expr).depth = depth;
+        }
     }
 
     void resolve(List<Stmt> statements) {
+        // where a local lives depends on whether anything captures it, which can happen after its declaration
+        resolveStatements(statements);
+        addressing = true;
+        resolveStatements(statements);
+        addressing = false;
+        captured.clear();
+    }
+
+    private void resolveStatements(List<Stmt> statements) {
         for(Stmt statement : statements) {
             resolve(statement);
         }
@@ -90,23 +244,54 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         // Rely on the JVM/local stack to store these
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        int enclosingFunctionScope = functionScope;
+        functionScope = scopes.size();
+        int enclosingFrameSize = frameSize;
+        frameSize = 0;
+
+        // parameters share the outermost scope with the body's declarations
+        List<Token> declarations = new ArrayList<>(function.params);
+        declarations.addAll(declarations(function.body));
+        function.scoped = isCaptured(declarations);
+        function.capturedParams = null;
+        if (isCaptured(function.params)) {
+            function.capturedParams = new boolean[function.params.size()];
+            for (int i = 0; i < function.params.size(); i++) {
+                function.capturedParams[i] = captured.contains(function.params.get(i));
+            }
+        }
 
-        beginScope();
+        beginScope(function.scoped);
         for (Token param : function.params) {
             declare(param);
             define(param);
         }
         // body resolution differs from runtime, where we don't care about the body until we call the method.
         // here with static analysis, we traverse the body NOW
-        resolve(function.body);
+        resolveStatements(function.body);
         endScope();
+        function.frameSize = frameSize;
         currentFunction = enclosingFunction;
+        functionScope = enclosingFunctionScope;
+        frameSize = enclosingFrameSize;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        beginScope();
-        resolve(stmt.statements);
+        // a block that declares nothing doesn't need a scope, so it won't get an Environment at runtime either
+        List<Token> declarations = declarations(stmt.statements);
+        if (declarations.isEmpty()) {
+            stmt.scoped = false;
+            resolveStatements(stmt.statements);
+            return null;
+        }
+
+        // inside a function the block's variables can still be frame slots, in which case it needs no Environment
+        stmt.scoped = needsEnvironment(declarations);
+        // any of its variables referenced from a nested function, meaning its Environment can outlive the block
+        stmt.captured = isCaptured(declarations);
+        beginScope(stmt.scoped);
+        resolveStatements(stmt.statements);
         endScope();
         return null;
     }
@@ -117,12 +302,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
 
         // prevent something like `class oops < oops {}`
         if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-            Lox.error(stmt.superclass.name, "A CLASS CANNOT INHERIT FROM ITSELF!");
+            error(stmt.superclass.name, "A CLASS CANNOT INHERIT FROM ITSELF!");
         }
 
         // resolve a class that's _likely_ to be global, but may not be
@@ -133,14 +318,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         // create a new scope surrounding class's methods and define super
         if (stmt.superclass != null) {
-            beginScope();
-            scopes.peek().put("SUPER", true);
+            beginScope(true);
+            declareSynthetic("SUPER");
         }
 
         // whenever a 'this' expr is encountered in a method, will resolve to a 'local' variable defined in an implicit
         // scope just outside of the block for the method body
-        beginScope();
-        scopes.peek().put("THIS", true);
+        beginScope(true);
+        declareSynthetic("THIS");
 
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
@@ -160,11 +345,34 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // only a loop variable needs a scope of its own, the same as the block FOR used to desugar into. Like a block's,
+        // it only needs an Environment if a closure can see the variable
+        boolean scoped = stmt.initializer instanceof Stmt.Var;
+        if (scoped) {
+            stmt.scoped = needsEnvironment(Collections.singletonList(((Stmt.Var)stmt.initializer).name));
+            beginScope(stmt.scoped);
+        }
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        if (stmt.increment != null) {
+            resolve(stmt.increment);
+        }
+        if (scoped) {
+            endScope();
+        }
+        return null;
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
         // declare and define the name of the function in the current scope, eagerly
         // allows a fn to recursively refer to itself in its own body
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
@@ -173,7 +381,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -192,8 +400,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name, "CANNOT READ LOCAL VARIABLE IN ITS OWN INITIALIZER!");
+        Local local = scopes.isEmpty() ? null : scopes.peek().locals.get(expr.name.lexeme);
+        if (local != null && !local.defined) {
+            error(expr.name, "CANNOT READ LOCAL VARIABLE IN ITS OWN INITIALIZER!");
         }
 
         resolveLocal(expr, expr.name);
@@ -204,6 +413,19 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitBinaryExpr(Expr.Binary expr) {
         resolve(expr.left);
         resolve(expr.right);
+        switch (expr.operator.type) {
+            case MINUS:
+            case SLASH:
+            case STAR:
+                expr.numeric = true;
+                break;
+            case PLUS:
+                // otherwise it could just as well be string concatenation
+                expr.numeric = isNumeric(expr.left) && isNumeric(expr.right);
+                break;
+            default:
+                break;
+        }
         return null;
     }
 
@@ -227,6 +449,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitGroupingExpr(Expr.Grouping expr) {
         resolve(expr.expression);
+        expr.numeric = isNumeric(expr.expression);
         return null;
     }
 
@@ -239,6 +462,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitUnaryExpr(Expr.Unary expr) {
         resolve(expr.right);
+        expr.numeric = expr.operator.type == TokenType.MINUS;
         return null;
     }
 
@@ -260,9 +484,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "CANNOT USE 'SUPER' OUTSIDE OF A CLASS!");
+            error(expr.keyword, "CANNOT USE 'SUPER' OUTSIDE OF A CLASS!");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "CANNOT USE 'SUPER' WITH NO SUPER CLASS!");
+            error(expr.keyword, "CANNOT USE 'SUPER' WITH NO SUPER CLASS!");
         }
         resolveLocal(expr, expr.keyword);
         return null;
@@ -273,7 +497,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         // when resolving 'this', use the currentClass to see if we should report an error about trying to use the this
         // keyword outside the context of a class
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "CANNOT USE 'THIS' OUTSIDE OF A CLASS!");
+            error(expr.keyword, "CANNOT USE 'THIS' OUTSIDE OF A CLASS!");
             return null;
         }
         resolveLocal(expr, expr.keyword);
@@ -305,12 +529,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "CANNOT RETURN FROM TOP LEVEL CODE!");
+            error(stmt.keyword, "CANNOT RETURN FROM TOP LEVEL CODE!");
         }
 
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-            Lox.error(stmt.keyword, "CANNOT RETURN A VALUE FROM AN INITIALIZER!");
+            error(stmt.keyword, "CANNOT RETURN A VALUE FROM AN INITIALIZER!");
             }
             resolve(stmt.value);
         }
@@ -0,0 +1,100 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * A string built up with +, so building one up a piece at a time in a loop takes linear time rather than quadratic.
+ *
+ * A rope is a view of the first length characters of a StringBuilder, which are never changed once they're there.
+ * Adding to the rope that ends where its buffer does appends to that buffer in place and gives a new view of it.
+ * Adding to any other rope copies it first, so every rope keeps reading the same characters it always did. It only
+ * becomes a String when it's printed, compared or hashed, and keeps that String for next time.
+ *
+ * Short strings stay Strings, since copying them costs less than a rope would.
+ */
+final class Rope implements CharSequence {
+  private static final int MIN_LENGTH = 64;
+
+  private final StringBuilder buffer;
+  private final int length;
+  private String flat;
+
+  private Rope(StringBuilder buffer) {
+    this.buffer = buffer;
+    this.length = buffer.length();
+  }
+
+  /**
+   * @return the two strings one after the other, as a String or a Rope
+   */
+  static Object concat(CharSequence left, CharSequence right) {
+    if (left instanceof Rope) {
+      Rope rope = (Rope)left;
+      // nothing has been added to the buffer past this rope yet, so it can take the right one in place
+      if (rope.length == rope.buffer.length()) {
+        append(rope.buffer, right);
+        return new Rope(rope.buffer);
+      }
+    }
+
+    int length = left.length() + right.length();
+    if (length < MIN_LENGTH) {
+      return left.toString().concat(right.toString());
+    }
+    // room to grow, for whatever gets added to it next
+    StringBuilder buffer = new StringBuilder(length * 2);
+    append(buffer, left);
+    append(buffer, right);
+    return new Rope(buffer);
+  }
+
+  private static void append(StringBuilder buffer, CharSequence text) {
+    if (text instanceof Rope) {
+      Rope rope = (Rope)text;
+      if (rope.buffer != buffer) {
+        buffer.append(rope.buffer, 0, rope.length);
+        return;
+      }
+    }
+    // a String, or a rope over the very buffer it's being added to, which can't be read while it's appended to
+    buffer.append(text.toString());
+  }
+
+  static boolean isString(Object value) {
+    return value instanceof String || value instanceof Rope;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index >= length) {
+      throw new IndexOutOfBoundsException(String.valueOf(index));
+    }
+    return buffer.charAt(index);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return toString().subSequence(start, end);
+  }
+
+  @Override
+  public String toString() {
+    if (flat == null) {
+      flat = buffer.substring(0, length);
+    }
+    return flat;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof Rope && toString().equals(other.toString());
+  }
+
+  @Override
+  public int hashCode() {
+    return toString().hashCode();
+  }
+}
@@ -1,57 +1,167 @@
 package com.craftinginterpreters.lox;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.NoSuchElementException;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
-class Scanner {
-  private final String source;
-  private final List<Token> tokens = new ArrayList<>();
-  private static final Map<String, TokenType> keywords;
-
-  // start is the position of the first character in the lexeme being scanned
+/**
+ * Turns source into tokens one at a time, as the Parser asks for them. The source is read a chunk at a time into a
+ * buffer that only ever holds the lexeme being scanned and whatever follows it, so neither the whole source nor the
+ * whole list of tokens has to be in memory at once.
+ */
+class Scanner implements Iterator<Token> {
+  private static final int CHUNK_SIZE = 8192;
+
+  private final Reader source;
+  private final ScreamContext context;
+  // the lexeme of every token that is always spelled the same way, indexed by TokenType ordinal
+  private static final String[] lexemes = new String[TokenType.values().length];
+  // one String per distinct identifier, so the tokens for every use of a name share the same lexeme
+  private final IdentifierTable identifiers = new IdentifierTable();
+
+  private char[] buffer = new char[CHUNK_SIZE];
+  // how much of the buffer holds characters read from the source
+  private int limit = 0;
+  // how many characters have been scanned and dropped from the front of the buffer
+  private int dropped = 0;
+  // whether everything has been read from the source
+  private boolean drained = false;
+
+  // start is the position in the buffer of the first character in the lexeme being scanned
   private int start = 0;
-  // current is the position of the character that we're currently considering
+  // current is the position in the buffer of the character that we're currently considering
   private int current = 0;
   // tracks what source line `current` is on so we can produce tokens that know their location
   private int line = 1;
+  // the token scanToken just produced, if it produced one
+  private Token token;
+  private boolean returnedEof = false;
 
   static {
-    keywords = new HashMap<>();
-    keywords.put("AND", AND);
-    keywords.put("CLASS", CLASS);
-    keywords.put("ELSE", ELSE);
-    keywords.put("FALSE", FALSE);
-    keywords.put("FOR", FOR);
-    keywords.put("FUN", FUN);
-    keywords.put("IF", IF);
-    keywords.put("NIL", NIL);
-    keywords.put("OR", OR);
-    keywords.put("PRINT", PRINT);
-    keywords.put("RETURN", RETURN);
-    keywords.put("SUPER", SUPER);
-    keywords.put("THIS", THIS);
-    keywords.put("TRUE", TRUE);
-    keywords.put("VAR", VAR);
-    keywords.put("WHILE", WHILE);
+    lexemes[LEFT_PAREN.ordinal()] = "(";
+    lexemes[RIGHT_PAREN.ordinal()] = ")";
+    lexemes[LEFT_BRACE.ordinal()] = "{";
+    lexemes[RIGHT_BRACE.ordinal()] = "}";
+    lexemes[COMMA.ordinal()] = ",";
+    lexemes[DOT.ordinal()] = ".";
+    lexemes[MINUS.ordinal()] = "-";
+    lexemes[PLUS.ordinal()] = "+";
+    lexemes[SEMICOLON.ordinal()] = ";";
+    lexemes[SLASH.ordinal()] = "/";
+    lexemes[STAR.ordinal()] = "*";
+    lexemes[BANG.ordinal()] = "!";
+    lexemes[BANG_EQUAL.ordinal()] = "!=";
+    lexemes[EQUAL.ordinal()] = "=";
+    lexemes[EQUAL_EQUAL.ordinal()] = "==";
+    lexemes[GREATER.ordinal()] = ">";
+    lexemes[GREATER_EQUAL.ordinal()] = ">=";
+    lexemes[LESS.ordinal()] = "<";
+    lexemes[LESS_EQUAL.ordinal()] = "<=";
+    lexemes[AND.ordinal()] = "AND";
+    lexemes[CLASS.ordinal()] = "CLASS";
+    lexemes[ELSE.ordinal()] = "ELSE";
+    lexemes[FALSE.ordinal()] = "FALSE";
+    lexemes[FOR.ordinal()] = "FOR";
+    lexemes[FUN.ordinal()] = "FUN";
+    lexemes[IF.ordinal()] = "IF";
+    lexemes[NIL.ordinal()] = "NIL";
+    lexemes[OR.ordinal()] = "OR";
+    lexemes[PRINT.ordinal()] = "PRINT";
+    lexemes[RETURN.ordinal()] = "RETURN";
+    lexemes[SUPER.ordinal()] = "SUPER";
+    lexemes[THIS.ordinal()] = "THIS";
+    lexemes[TRUE.ordinal()] = "TRUE";
+    lexemes[VAR.ordinal()] = "VAR";
+    lexemes[WHILE.ordinal()] = "WHILE";
+    lexemes[EOF.ordinal()] = "";
+  }
+
+  Scanner(String source, ScreamContext context) {
+    this(new StringReader(source), context);
   }
 
-  Scanner(String source) {
+  /**
+   * Scans from a reader, which is read as tokens are asked for and never closed by the scanner. An IOException from
+   * the reader is rethrown as an UncheckedIOException.
+   */
+  Scanner(Reader source, ScreamContext context) {
+    this(source, context, 1);
+  }
+
+  /**
+   * Scans a reader that picks the source up partway through, at the start of the given line.
+   */
+  Scanner(Reader source, ScreamContext context, int line) {
     this.source = source;
+    this.context = context;
+    this.line = line;
+  }
+
+  /**
+   * @return how many characters have been scanned, which just after a token is returned is where that token ends
+   */
+  int offset() {
+    return dropped + current;
+  }
+
+  /**
+   * @return the line scanning has got up to
+   */
+  int line() {
+    return line;
   }
 
+  /**
+   * Scans everything that's left, for when all the tokens are wanted up front.
+   */
   List<Token> scanTokens() {
+    List<Token> tokens = new ArrayList<>();
+    while (hasNext()) {
+      tokens.add(next());
+    }
+    return tokens;
+  }
+
+  /**
+   * Scans the next token, reporting any errors on the way to it. Once the source runs out, every call returns an EOF
+   * token.
+   */
+  Token nextToken() {
     while(!isAtEnd()) {
       // we are at the beginning of the next lexeme
       start = current;
       scanToken();
+      if (token != null) {
+        Token scanned = token;
+        token = null;
+        return scanned;
+      }
     }
 
-    tokens.add(new Token(EOF, "", null, line));
-    return tokens;
+    return new Token(EOF, lexemes[EOF.ordinal()], null, line);
+  }
+
+  @Override
+  public boolean hasNext() {
+    return !returnedEof;
+  }
+
+  @Override
+  public Token next() {
+    if (returnedEof) {
+      throw new NoSuchElementException();
+    }
+    Token next = nextToken();
+    returnedEof = next.type == EOF;
+    return next;
   }
 
   private void scanToken() {
@@ -145,7 +255,7 @@ class Scanner {
           identifier();
         }else {
           // keep on going, let's find as many errors as we can at this point
-          Lox.error(line, "UNEXPECTED CHARACTER!");
+          context.error(line, "UNEXPECTED CHARACTER!");
         }
         break;
     }
@@ -156,12 +266,83 @@ class Scanner {
       advance();
     }
     // See if the identifier is a reserved word
-    String text = source.substring(start, current);
-    TokenType type = keywords.get(text);
-    if (type == null) {
-      type = IDENTIFIER;
+    TokenType type = identifierType();
+    if (type != IDENTIFIER) {
+      addToken(type);
+      return;
     }
-    addToken(type);
+
+    token = new Token(IDENTIFIER, identifiers.intern(buffer, start, current - start), null, line);
+  }
+
+  /**
+   * Picks keywords out by walking a hand written trie over the lexeme's characters, the way clox does, so telling a
+   * keyword from an identifier never needs the lexeme as a String.
+   * @return the keyword's type, or IDENTIFIER if the lexeme isn't one
+   */
+  private TokenType identifierType() {
+    switch (buffer[start]) {
+      case 'A':
+        return checkKeyword(1, "ND", AND);
+      case 'C':
+        return checkKeyword(1, "LASS", CLASS);
+      case 'E':
+        return checkKeyword(1, "LSE", ELSE);
+      case 'F':
+        if (current - start > 1) {
+          switch (buffer[start + 1]) {
+            case 'A':
+              return checkKeyword(2, "LSE", FALSE);
+            case 'O':
+              return checkKeyword(2, "R", FOR);
+            case 'U':
+              return checkKeyword(2, "N", FUN);
+          }
+        }
+        break;
+      case 'I':
+        return checkKeyword(1, "F", IF);
+      case 'N':
+        return checkKeyword(1, "IL", NIL);
+      case 'O':
+        return checkKeyword(1, "R", OR);
+      case 'P':
+        return checkKeyword(1, "RINT", PRINT);
+      case 'R':
+        return checkKeyword(1, "ETURN", RETURN);
+      case 'S':
+        return checkKeyword(1, "UPER", SUPER);
+      case 'T':
+        if (current - start > 1) {
+          switch (buffer[start + 1]) {
+            case 'H':
+              return checkKeyword(2, "IS", THIS);
+            case 'R':
+              return checkKeyword(2, "UE", TRUE);
+          }
+        }
+        break;
+      case 'V':
+        return checkKeyword(1, "AR", VAR);
+      case 'W':
+        return checkKeyword(1, "HILE", WHILE);
+    }
+    return IDENTIFIER;
+  }
+
+  /**
+   * Checks that the rest of the lexeme, from {@code offset} on, is exactly {@code rest}.
+   */
+  private TokenType checkKeyword(int offset, String rest, TokenType type) {
+    if (current - start != offset + rest.length()) {
+      return IDENTIFIER;
+    }
+    for (int i = 0; i < rest.length(); i++) {
+      if (buffer[start + offset + i] != rest.charAt(i)) {
+        return IDENTIFIER;
+      }
+    }
+    return type;
   }
 
   private void number() {
@@ -178,7 +359,8 @@ class Scanner {
       advance();
     }
 
-    addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+    String text = lexeme();
+    token = new Token(NUMBER, text, Double.parseDouble(text), line);
   }
 
   private void string() {
@@ -191,7 +373,7 @@ class Scanner {
 
       // STRINGS MUST SCREAM
       if (currentChar >= 'a' && currentChar <= 'z') {
-        Lox.error(line, "NON SCREAM STRING DETECTED! SCREAM IT OR ELSE!");
+        context.error(line, "NON SCREAM STRING DETECTED! SCREAM IT OR ELSE!");
         return;
       }
 
@@ -199,7 +381,7 @@ class Scanner {
     }
 
     if (isAtEnd()) {
-      Lox.error(line, "UNTERMINATED STRING!");
+      context.error(line, "UNTERMINATED STRING!");
       return;
     }
 
@@ -207,8 +389,8 @@ class Scanner {
     advance();
 
     // trim the surrounding quotes
-    String value = source.substring(start + 1, current - 1);
-    addToken(STRING, value);
+    String text = lexeme();
+    token = new Token(STRING, text, text.substring(1, text.length() - 1), line);
   }
 
   /**
@@ -222,7 +404,7 @@ class Scanner {
     // one character lookahead
     // the smaller this number is (generally) the faster the scanner runs
     // the lexical grammar dictates how much lookahead that we need
-    return source.charAt(current);
+    return buffer[current];
   }
 
   /**
@@ -230,12 +412,12 @@ class Scanner {
    * @return the character at the next position (relative to the current position)
    */
   private char peekNext() {
-    if (current + 1 >= source.length()) {
+    if (!fill(1)) {
       return '\0';
     }
 
     // two character lookahead
-    return source.charAt(current + 1);
+    return buffer[current + 1];
   }
 
   private boolean isAlpha(char c) {
@@ -261,7 +443,7 @@ class Scanner {
     }
 
     // also a small lookahead
-    if (source.charAt(current) != expected) {
+    if (buffer[current] != expected) {
       return false;
     }
 
@@ -271,24 +453,62 @@ class Scanner {
   }
 
   private boolean isAtEnd() {
-    return current >= source.length();
+    return !fill(0);
+  }
+
+  /**
+   * Makes sure the character {@code ahead} of the current position is in the buffer, reading more of the source if it
+   * isn't. Whatever comes before the lexeme being scanned is dropped from the buffer to make room.
+   * @return false if the source ends before that character
+   */
+  private boolean fill(int ahead) {
+    while (current + ahead >= limit) {
+      if (drained) {
+        return false;
+      }
+      if (start > 0) {
+        System.arraycopy(buffer, start, buffer, 0, limit - start);
+        dropped += start;
+        limit -= start;
+        current -= start;
+        start = 0;
+      }
+      if (limit == buffer.length) {
+        // a single lexeme bigger than the buffer, such as a huge string
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+
+      int read;
+      try {
+        read = source.read(buffer, limit, buffer.length - limit);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      if (read < 0) {
+        drained = true;
+      } else {
+        limit += read;
+      }
+    }
+    return true;
   }
+
   /**
    * Moves the current counter forward, returns a character from the input
    * @return the character that we just passed over
    */
   private char advance() {
-    current++;
+    char c = isAtEnd() ? '\0' : buffer[current];
     // need to advance, then return the one that we just 'passed' over, in the event of a bad character
-    return source.charAt(current - 1);
+    current++;
+    return c;
   }
 
   private void addToken(TokenType type) {
-    addToken(type, null);
+    token = new Token(type, lexemes[type.ordinal()], null, line);
   }
 
-  private void addToken(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+  private String lexeme() {
+    return new String(buffer, start, current - start);
   }
 }
@@ -0,0 +1,142 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Where a script's output and errors go, and whether it has failed so far. Every stage reports to the context it was
+ * handed rather than to global state, so scripts with contexts of their own can run side by side.
+ *
+ * What PRINT writes is held on to until there's a buffer's worth of it (-Dscream.output.buffer characters, 8192 by
+ * default), rather than written out and flushed a line at a time. The engine flushes it once a script is done, and so
+ * does every error before it's printed, so output and errors still come out in the order they happened.
+ */
+public final class ScreamContext {
+  /**
+   * Takes the compile errors reported to a context in place of printing them to err.
+   */
+  interface ErrorReporter {
+    void report(int line, String where, String message);
+  }
+
+  private static final int BUFFER_SIZE = Integer.getInteger("scream.output.buffer", 8192);
+  // what println ended lines with before output was buffered
+  private static final String LINE_SEPARATOR = System.lineSeparator();
+
+  private final Appendable out;
+  private final StringBuilder buffer = new StringBuilder();
+  private final int bufferSize;
+  final PrintStream err;
+  private final ErrorReporter reporter;
+  private boolean hadError = false;
+  private boolean hadRuntimeError = false;
+
+  public ScreamContext() {
+    this(System.out, System.err);
+  }
+
+  public ScreamContext(PrintStream out, PrintStream err) {
+    this(out, err, BUFFER_SIZE);
+  }
+
+  /**
+   * @param out where PRINT writes to, flushed along with the context if it's Flushable
+   * @param bufferSize how many characters of output to hold on to before writing them out, 0 to write every line
+   *   straight away
+   */
+  public ScreamContext(Appendable out, PrintStream err, int bufferSize) {
+    this(out, err, bufferSize, null);
+  }
+
+  // for tools that keep track of the errors themselves (see ScriptDocument)
+  ScreamContext(PrintStream out, PrintStream err, ErrorReporter reporter) {
+    this(out, err, BUFFER_SIZE, reporter);
+  }
+
+  private ScreamContext(Appendable out, PrintStream err, int bufferSize, ErrorReporter reporter) {
+    this.out = out;
+    this.err = err;
+    this.bufferSize = bufferSize;
+    this.reporter = reporter;
+  }
+
+  /**
+   * @return whether the script failed to scan, parse or resolve
+   */
+  public boolean hadError() {
+    return hadError;
+  }
+
+  public boolean hadRuntimeError() {
+    return hadRuntimeError;
+  }
+
+  // each script the engine compiles or runs starts out without errors
+  public void resetErrors() {
+    hadError = false;
+    hadRuntimeError = false;
+  }
+
+  // one line of output, from PRINT
+  void print(String line) {
+    buffer.append(line).append(LINE_SEPARATOR);
+    if (buffer.length() >= bufferSize) {
+      flush();
+    }
+  }
+
+  /**
+   * Writes out everything printed so far.
+   */
+  public void flush() {
+    try {
+      if (buffer.length() > 0) {
+        out.append(buffer);
+        buffer.setLength(0);
+      }
+      if (out instanceof Flushable) {
+        ((Flushable)out).flush();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  void error(int line, String message) {
+    report(line, "", message);
+  }
+
+  void error(Token token, String message) {
+    if (token.type == TokenType.EOF) {
+      report(token.line, " AT END", message);
+    } else {
+      report(token.line, " AT '" + token.lexeme + "'", message);
+    }
+  }
+
+  private void report(int line, String where, String message) {
+    if (reporter != null) {
+      reporter.report(line, where, message);
+    } else {
+      flush();
+      err.println(format(line, where, message));
+    }
+    hadError = true;
+  }
+
+  static String format(int line, String where, String message) {
+    return "[LINE " + line + "] ERROR" + where + ": " + message;
+  }
+
+  void runtimeError(RuntimeError error) {
+    runtimeError(error.getMessage(), error.token.line);
+  }
+
+  void runtimeError(String message, int line) {
+    flush();
+    err.println(message + "\n[LINE " + line + "]");
+    hadRuntimeError = true;
+  }
+}
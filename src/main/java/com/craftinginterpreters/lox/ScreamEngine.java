@@ -0,0 +1,211 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import com.craftinginterpreters.lox.vm.VM;
+import com.craftinginterpreters.lox.vm.VmFunction;
+import com.craftinginterpreters.lox.vm.VmRuntimeError;
+
+/**
+ * Runs scripts with an interpreter, globals and error state all of its own. Globals persist from one script to the
+ * next, which is what the REPL relies on.
+ *
+ * An engine is not thread safe, but nothing is shared between engines, so any number of them can run on different
+ * threads at once.
+ */
+public final class ScreamEngine {
+  private final ScreamContext context;
+  // run on the bytecode VM instead of walking the tree
+  private final boolean useVm;
+  private final Interpreter interpreter;
+  private final VM vm;
+  private ScreamMetrics metrics;
+  // counted into by the interpreter while a script runs, then handed to the metrics
+  private final ScreamMetrics.Run run = new ScreamMetrics.Run();
+
+  public ScreamEngine() {
+    this(new ScreamContext(), false);
+  }
+
+  public ScreamEngine(ScreamContext context, boolean useVm) {
+    this.context = context;
+    this.useVm = useVm;
+    this.interpreter = useVm ? null : new Interpreter(context);
+    this.vm = useVm ? new VM(context::print) : null;
+  }
+
+  /**
+   * Adds what every script this engine runs from now on does to the metrics, or stops keeping metrics if null.
+   */
+  public void recordMetrics(ScreamMetrics metrics) {
+    this.metrics = metrics;
+    if (interpreter != null) {
+      interpreter.metrics = metrics == null ? null : run;
+    }
+  }
+
+  /**
+   * Has the profiler time everything this engine runs from now on. Only the tree walking interpreter can be profiled.
+   */
+  void profile(Profiler profiler) {
+    if (useVm) {
+      throw new IllegalStateException("ONLY THE TREE ENGINE CAN BE PROFILED!");
+    }
+    interpreter.profiler = profiler;
+  }
+
+  public ScreamContext context() {
+    return context;
+  }
+
+  /**
+   * Scans, parses, resolves and runs a script. Errors are reported to the engine's context rather than thrown.
+   */
+  public void run(String source) {
+    run(source, null);
+  }
+
+  /**
+   * Same as {@link #run(String)}, with the resolved tree taken from the cache if there is one.
+   */
+  public void run(String source, ScriptCache cache) {
+    CompiledScript script = compile(source, cache);
+    if (script != null) {
+      run(script);
+    }
+  }
+
+  /**
+   * Scans, parses and resolves a script once, so it can be run as many times as needed, by this engine or any other.
+   * Clears the errors the context still holds from before.
+   *
+   * @return the compiled script, or null if it has errors, which are reported to the engine's context
+   */
+  public CompiledScript compile(String source) {
+    return compile(new Scanner(source, context));
+  }
+
+  /**
+   * Same as {@link #compile(String)}, with the source read from the reader as it's scanned rather than all at once,
+   * so a script doesn't have to fit in memory as a whole to be compiled. The reader is left open.
+   */
+  public CompiledScript compile(Reader source) throws IOException {
+    try {
+      return compile(new Scanner(source, context));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private CompiledScript compile(Scanner scanner) {
+    context.resetErrors();
+    // the parser pulls tokens from the scanner as it goes
+    Parser parser = new Parser(scanner, context);
+    List<Stmt> statements = parser.parse();
+
+    if (context.hadError()) {
+      return null;
+    }
+
+    Resolver resolver = new Resolver(context);
+    resolver.resolve(statements);
+
+    // Stop if there was a resolution error.
+    if (context.hadError()) {
+      return null;
+    }
+
+    new ConstantFolder(context).fold(statements);
+    return finish(statements);
+  }
+
+  /**
+   * Same as {@link #compile(String)}, except that the resolved tree is taken from the cache when the same source was
+   * compiled before, and put in it otherwise. A null cache doesn't cache anything.
+   */
+  public CompiledScript compile(String source, ScriptCache cache) {
+    if (cache == null) {
+      return compile(source);
+    }
+    context.resetErrors();
+    List<Stmt> statements = cache.load(source);
+    if (statements != null) {
+      return finish(statements);
+    }
+
+    CompiledScript script = compile(source);
+    if (script != null) {
+      cache.store(source, script.statements);
+    }
+    return script;
+  }
+
+  private CompiledScript finish(List<Stmt> statements) {
+    VmFunction bytecode = null;
+    if (useVm) {
+      bytecode = new BytecodeCompiler(context).compile(statements);
+      if (context.hadError()) {
+        return null;
+      }
+    }
+    return new CompiledScript(statements, bytecode);
+  }
+
+  /**
+   * Runs a compiled script on this engine, against the globals left behind by whatever it ran before. Clears the
+   * errors the context still holds from before, then reports runtime errors to it.
+   */
+  public void run(CompiledScript script) {
+    if (metrics == null) {
+      execute(script);
+      return;
+    }
+    run.reset();
+    long start = System.nanoTime();
+    boolean finished = false;
+    try {
+      execute(script);
+      finished = true;
+    } finally {
+      // a script that threw, e.g. by overflowing the stack, still counts, as one that failed
+      run.nanos = System.nanoTime() - start;
+      run.runtimeError = context.hadRuntimeError() || !finished;
+      metrics.record(run);
+    }
+  }
+
+  private void execute(CompiledScript script) {
+    context.resetErrors();
+    try {
+      executeScript(script);
+    } finally {
+      // whatever the script printed goes out once it's done
+      context.flush();
+    }
+  }
+
+  private void executeScript(CompiledScript script) {
+    if (useVm) {
+      VmFunction bytecode = script.bytecode;
+      if (bytecode == null) {
+        // compiled by an engine that walks the tree
+        bytecode = new BytecodeCompiler(context).compile(script.statements);
+        if (context.hadError()) {
+          return;
+        }
+      }
+
+      try {
+        vm.interpret(bytecode);
+      } catch (VmRuntimeError error) {
+        context.runtimeError(error.getMessage(), error.line);
+      }
+      return;
+    }
+
+    interpreter.interpret(script.statements);
+  }
+}
@@ -0,0 +1,212 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts what the engines it's handed to (see {@link ScreamEngine#recordMetrics}) do: statements executed, calls
+ * made, Environments allocated, instances created, runtime errors, and how long scripts take to run. Any number of
+ * engines on any threads can share one.
+ *
+ * An engine counts into a {@link Run} of its own while a script runs and only adds it in here once the script is done,
+ * so counting costs a field increment and nothing is shared between threads until then. Engines without metrics
+ * don't count at all. Sinks are told about every run, to pass it on to whatever monitoring a service already has, and
+ * {@link #registerMBean} shows the totals over JMX.
+ *
+ * Only the tree walking interpreter counts statements, calls, Environments and instances. Functions aren't JIT compiled
+ * while it keeps metrics, since compiled code doesn't go through Interpreter.execute to be counted. Scripts run on the
+ * VM only add to the runs, runtime errors and latency.
+ */
+public final class ScreamMetrics implements ScreamMetricsMBean {
+  private static final int BUCKETS = 40;
+
+  /**
+   * Told about every script an engine with these metrics runs, on the thread that ran it. The Run it's handed is its
+   * own and never changes, so it can be kept or queued.
+   */
+  public interface Sink {
+    void scriptRan(Run run);
+  }
+
+  /**
+   * What one script did.
+   */
+  public static final class Run {
+    long statements;
+    long calls;
+    long environments;
+    long instances;
+    boolean runtimeError;
+    long nanos;
+
+    public long statements() {
+      return statements;
+    }
+
+    public long calls() {
+      return calls;
+    }
+
+    public long environments() {
+      return environments;
+    }
+
+    public long instances() {
+      return instances;
+    }
+
+    public boolean runtimeError() {
+      return runtimeError;
+    }
+
+    public long nanos() {
+      return nanos;
+    }
+
+    Run copy() {
+      Run copy = new Run();
+      copy.statements = statements;
+      copy.calls = calls;
+      copy.environments = environments;
+      copy.instances = instances;
+      copy.runtimeError = runtimeError;
+      copy.nanos = nanos;
+      return copy;
+    }
+
+    void reset() {
+      statements = 0;
+      calls = 0;
+      environments = 0;
+      instances = 0;
+      runtimeError = false;
+      nanos = 0;
+    }
+  }
+
+  private final LongAdder scripts = new LongAdder();
+  private final LongAdder statements = new LongAdder();
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder environments = new LongAdder();
+  private final LongAdder instances = new LongAdder();
+  private final LongAdder runtimeErrors = new LongAdder();
+  private final LongAdder nanos = new LongAdder();
+  // bucket i counts the scripts that ran in under 2^i microseconds, and at least 2^(i-1)
+  private final AtomicLongArray latency = new AtomicLongArray(BUCKETS);
+  private final List<Sink> sinks = new CopyOnWriteArrayList<>();
+
+  public void addSink(Sink sink) {
+    sinks.add(sink);
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server, as com.craftinginterpreters.lox:type=ScreamMetrics,
+   * name=NAME.
+   */
+  public ObjectName registerMBean(String name) throws JMException {
+    ObjectName objectName =
+      new ObjectName("com.craftinginterpreters.lox:type=ScreamMetrics,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    return objectName;
+  }
+
+  void record(Run run) {
+    scripts.increment();
+    statements.add(run.statements);
+    calls.add(run.calls);
+    environments.add(run.environments);
+    instances.add(run.instances);
+    if (run.runtimeError) {
+      runtimeErrors.increment();
+    }
+    nanos.add(run.nanos);
+    long micros = TimeUnit.NANOSECONDS.toMicros(run.nanos);
+    latency.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1));
+    if (sinks.isEmpty()) {
+      return;
+    }
+    // the engine counts into the same Run for its next script
+    Run copy = run.copy();
+    for (Sink sink : sinks) {
+      sink.scriptRan(copy);
+    }
+  }
+
+  @Override
+  public long getScriptsRun() {
+    return scripts.sum();
+  }
+
+  @Override
+  public long getStatementsExecuted() {
+    return statements.sum();
+  }
+
+  @Override
+  public long getCallsMade() {
+    return calls.sum();
+  }
+
+  @Override
+  public long getEnvironmentsAllocated() {
+    return environments.sum();
+  }
+
+  @Override
+  public long getInstancesCreated() {
+    return instances.sum();
+  }
+
+  @Override
+  public long getRuntimeErrors() {
+    return runtimeErrors.sum();
+  }
+
+  @Override
+  public long[] getLatencyHistogram() {
+    long[] histogram = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      histogram[i] = latency.get(i);
+    }
+    return histogram;
+  }
+
+  @Override
+  public double getMeanLatencyMillis() {
+    long count = scripts.sum();
+    return count == 0 ? 0 : nanos.sum() / 1e6 / count;
+  }
+
+  @Override
+  public long getLatencyP50Micros() {
+    return percentile(0.5);
+  }
+
+  @Override
+  public long getLatencyP99Micros() {
+    return percentile(0.99);
+  }
+
+  private long percentile(double fraction) {
+    long[] histogram = getLatencyHistogram();
+    long total = 0;
+    for (long count : histogram) {
+      total += count;
+    }
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += histogram[i];
+      if (seen > 0 && seen >= fraction * total) {
+        return 1L << i;
+      }
+    }
+    return 0;
+  }
+}
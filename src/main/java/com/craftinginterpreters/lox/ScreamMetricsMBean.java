@@ -0,0 +1,36 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * What {@link ScreamMetrics} shows over JMX.
+ */
+public interface ScreamMetricsMBean {
+  long getScriptsRun();
+
+  long getStatementsExecuted();
+
+  long getCallsMade();
+
+  long getEnvironmentsAllocated();
+
+  long getInstancesCreated();
+
+  long getRuntimeErrors();
+
+  /**
+   * @return how many scripts took less than 1, 2, 4, ... microseconds to run, one bucket per power of two, the last
+   *   one holding everything longer
+   */
+  long[] getLatencyHistogram();
+
+  double getMeanLatencyMillis();
+
+  /**
+   * @return the bucket limit, in microseconds, under which at least half the scripts ran
+   */
+  long getLatencyP50Micros();
+
+  /**
+   * @return the bucket limit, in microseconds, under which at least 99% of the scripts ran
+   */
+  long getLatencyP99Micros();
+}
@@ -0,0 +1,96 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Keeps resolved trees in a directory on disk, one file per script named after the SHA-256 of its source, so a script
+ * that hasn't changed since it was last compiled skips the Scanner, Parser and Resolver. See AstSerializer for the
+ * format.
+ *
+ * The cache is only ever an optimization: a file that is missing, unreadable or was written for different node
+ * definitions or by different passes counts as a miss, and a tree that can't be written is simply not cached.
+ */
+public final class ScriptCache {
+  // "SCRM"
+  private static final int MAGIC = 0x5343524d;
+  // the tree is cached as the Resolver and ConstantFolder left it, which SCHEMA knows nothing about, so this has to be
+  // bumped whenever either of them changes what it leaves in the tree
+  private static final int PASSES = 1;
+
+  private final Path directory;
+
+  public ScriptCache(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * @return the tree cached for the source, or null on a miss
+   */
+  List<Stmt> load(String source) {
+    try (InputStream file = Files.newInputStream(path(source))) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(file));
+      if (in.readInt() != MAGIC || in.readInt() != PASSES || in.readInt() != AstSerializer.SCHEMA) {
+        return null;
+      }
+      return AstSerializer.read(in);
+    } catch (IOException | RuntimeException e) {
+      // not cached yet, or truncated or otherwise corrupt, it gets written over once the script has been compiled
+      return null;
+    }
+  }
+
+  void store(String source, List<Stmt> statements) {
+    Path path = path(source);
+    Path temporary = null;
+    try {
+      Files.createDirectories(directory);
+      // written next to where it belongs and moved into place, so no one ever reads a half written tree
+      temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+      try (OutputStream file = Files.newOutputStream(temporary)) {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+        out.writeInt(MAGIC);
+        out.writeInt(PASSES);
+        out.writeInt(AstSerializer.SCHEMA);
+        AstSerializer.write(out, statements);
+        out.flush();
+      }
+      Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      if (temporary != null) {
+        try {
+          Files.deleteIfExists(temporary);
+        } catch (IOException ignored) {
+          // nothing more to be done about it
+        }
+      }
+    }
+  }
+
+  private Path path(String source) {
+    byte[] hash;
+    try {
+      hash = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+    StringBuilder name = new StringBuilder();
+    for (byte b : hash) {
+      name.append(String.format("%02x", b));
+    }
+    return directory.resolve(name.append(".ast").toString());
+  }
+}
@@ -0,0 +1,321 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A script that is being edited, for editors and other tools that want its errors kept up to date as it changes.
+ *
+ * The text is kept split up into its top-level declarations. An edit only rescans and reparses from the declaration
+ * it starts in up to the first declaration boundary past its end that lines up with one from before. Every declaration
+ * after that keeps the tree, tokens and errors it already had, moved along by however many characters and lines the
+ * edit added or removed. So the cost of an edit depends on how much of the script it touches, not on how long the
+ * script is.
+ *
+ * Tokens never change once they're scanned, so a declaration that was moved to other lines keeps its old ones, along
+ * with how many lines it has moved by. Its errors are reported on the lines they're on now, and its tree is only
+ * parsed again, on the right lines, once the statements are asked for.
+ */
+public final class ScriptDocument {
+  // one top-level declaration, along with the trivia that comes before it
+  private static final class Chunk {
+    // where its last token ends, which is also where the next chunk starts
+    int end;
+    // the line its last token ends on
+    int endLine;
+    // null when it failed to parse, and for the tail
+    Stmt statement;
+    List<Error> errors = new ArrayList<>();
+    // how many lines it has moved by since it was parsed, which its tokens and errors don't know about
+    int shift;
+  }
+
+  private static final class Error {
+    final int line;
+    final String where;
+    final String message;
+    // where scanning had got up to when it was reported, only used to tell which chunk a scan error belongs to
+    final int offset;
+
+    Error(int line, String where, String message, int offset) {
+      this.line = line;
+      this.where = where;
+      this.message = message;
+      this.offset = offset;
+    }
+  }
+
+  // hands the Parser tokens from the Scanner, keeping track of where each one ends and of the errors along the way
+  private static final class Tokens implements Iterator<Token>, ScreamContext.ErrorReporter {
+    final int start;
+    Scanner scanner;
+    // where the last two tokens handed out end, and on which lines
+    int lastEnd;
+    int lastLine;
+    int previousEnd;
+    int previousLine;
+    final List<Error> scanErrors = new ArrayList<>();
+    final List<Error> parseErrors = new ArrayList<>();
+    boolean reportingParseErrors = false;
+
+    Tokens(int start, int line) {
+      this.start = start;
+      this.lastEnd = start;
+      this.lastLine = line;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return scanner.hasNext();
+    }
+
+    @Override
+    public Token next() {
+      Token token = scanner.next();
+      previousEnd = lastEnd;
+      previousLine = lastLine;
+      lastEnd = start + scanner.offset();
+      lastLine = scanner.line();
+      return token;
+    }
+
+    @Override
+    public void report(int line, String where, String message) {
+      Error error = new Error(line, where, message, start + scanner.offset());
+      (reportingParseErrors ? parseErrors : scanErrors).add(error);
+    }
+
+    // moves the scan errors reported up to the end of the chunk, then its parse errors, over to it
+    void takeErrors(Chunk chunk) {
+      int taken = 0;
+      while (taken < scanErrors.size() && scanErrors.get(taken).offset <= chunk.end) {
+        chunk.errors.add(scanErrors.get(taken++));
+      }
+      scanErrors.subList(0, taken).clear();
+      chunk.errors.addAll(parseErrors);
+      parseErrors.clear();
+    }
+  }
+
+  // reads the text from wherever the reparse starts, without copying it out into a String first
+  private static final class TextReader extends Reader {
+    private final StringBuilder text;
+    private int position;
+
+    TextReader(StringBuilder text, int position) {
+      this.text = text;
+      this.position = position;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) {
+      if (position >= text.length()) {
+        return -1;
+      }
+      int count = Math.min(length, text.length() - position);
+      text.getChars(position, position + count, buffer, offset);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private final StringBuilder text;
+  // always ends with a tail chunk, holding whatever follows the last declaration
+  private final List<Chunk> chunks = new ArrayList<>();
+  // The chunks from pendingFrom on have still to be moved along by pendingChars characters and pendingLines lines.
+  // Moving them is put off until an edit further on comes along, so a run of edits close to each other only ever
+  // moves the chunks in between.
+  private int pendingFrom = 0;
+  private int pendingChars = 0;
+  private int pendingLines = 0;
+
+  public ScriptDocument(String text) {
+    this.text = new StringBuilder(text);
+    reparse(0, 0, 1, 0, Integer.MAX_VALUE);
+  }
+
+  public String text() {
+    return text.toString();
+  }
+
+  /**
+   * Replaces {@code length} characters starting at {@code offset} with the replacement, then brings the parsed
+   * declarations and errors up to date with the change.
+   */
+  public void edit(int offset, int length, String replacement) {
+    if (offset < 0 || length < 0 || offset + length > text.length()) {
+      throw new IndexOutOfBoundsException("EDIT OUT OF RANGE!");
+    }
+    text.replace(offset, offset + length, replacement);
+
+    // the chunk before the first one the edit reaches, since it looked ahead at the token the edit might have changed
+    // to decide where it ended
+    int first = Math.max(firstEndingAt(offset) - 1, 0);
+    // the chunks that end after the edit move along with the text after it
+    int moved = Math.max(firstEndingAt(offset + length), first);
+    move(moved, replacement.length() - length, 0);
+
+    int start = first == 0 ? 0 : end(first - 1);
+    int line = first == 0 ? 1 : endLine(first - 1);
+    reparse(first, start, line, moved, offset + replacement.length());
+  }
+
+  // the first chunk that ends at or after the offset, the tail always does
+  private int firstEndingAt(int offset) {
+    int low = 0;
+    int high = chunks.size() - 1;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (end(middle) >= offset) {
+        high = middle;
+      } else {
+        low = middle + 1;
+      }
+    }
+    return low;
+  }
+
+  private int end(int index) {
+    return chunks.get(index).end + (index >= pendingFrom ? pendingChars : 0);
+  }
+
+  private int endLine(int index) {
+    return chunks.get(index).endLine + (index >= pendingFrom ? pendingLines : 0);
+  }
+
+  // moves the chunks from the index on along by the given characters and lines
+  private void move(int index, int chars, int lines) {
+    if (index < pendingFrom) {
+      for (int i = index; i < pendingFrom; i++) {
+        move(chunks.get(i), chars, lines);
+      }
+    } else {
+      for (int i = pendingFrom; i < index; i++) {
+        move(chunks.get(i), pendingChars, pendingLines);
+      }
+      pendingFrom = index;
+    }
+    pendingChars += chars;
+    pendingLines += lines;
+  }
+
+  private static void move(Chunk chunk, int chars, int lines) {
+    chunk.end += chars;
+    chunk.endLine += lines;
+    chunk.shift += lines;
+  }
+
+  // catches every chunk up with the moves still pending
+  private void settle() {
+    move(chunks.size(), 0, 0);
+  }
+
+  /**
+   * @return every error in the script, formatted the way they're printed when it's run
+   */
+  public List<String> errors() {
+    settle();
+    List<String> errors = new ArrayList<>();
+    for (Chunk chunk : chunks) {
+      for (Error error : chunk.errors) {
+        errors.add(ScreamContext.format(error.line + chunk.shift, error.where, error.message));
+      }
+    }
+    return errors;
+  }
+
+  public boolean hasErrors() {
+    for (Chunk chunk : chunks) {
+      if (!chunk.errors.isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the script's top-level declarations, the same as the Parser gives for the whole text except that the ones
+   *   that failed to parse are left out, rather than being null
+   */
+  List<Stmt> statements() {
+    settle();
+    List<Stmt> statements = new ArrayList<>();
+    for (int i = 0; i < chunks.size() - 1; i++) {
+      if (chunks.get(i).shift != 0) {
+        // the same text from the same place, so it parses to the same declaration, just on the lines it's on now
+        int start = i == 0 ? 0 : end(i - 1);
+        reparse(i, start, i == 0 ? 1 : endLine(i - 1), i, start);
+      }
+      Stmt statement = chunks.get(i).statement;
+      if (statement != null) {
+        statements.add(statement);
+      }
+    }
+    return Collections.unmodifiableList(statements);
+  }
+
+  /**
+   * Parses the text from {@code start}, which is on {@code line}, in place of the chunks from {@code first} on. Once
+   * a declaration past {@code editEnd} ends where one of the chunks from {@code moved} on ends, the text after it is
+   * the same as before, so the rest of the chunks are kept as they are.
+   */
+  private void reparse(int first, int start, int line, int moved, int editEnd) {
+    Tokens tokens = new Tokens(start, line);
+    ScreamContext context = new ScreamContext(System.out, System.err, tokens);
+    tokens.scanner = new Scanner(new TextReader(text, start), context, line);
+    Parser parser = new Parser(tokens, context);
+
+    List<Chunk> fresh = new ArrayList<>();
+    int kept = -1;
+    int candidate = moved;
+    while (!parser.isAtEnd()) {
+      Chunk chunk = new Chunk();
+      chunk.statement = parser.nextDeclaration();
+      tokens.reportingParseErrors = true;
+      parser.reportErrors();
+      tokens.reportingParseErrors = false;
+
+      // the parser has already pulled the next declaration's first token
+      chunk.end = tokens.previousEnd;
+      chunk.endLine = tokens.previousLine;
+      tokens.takeErrors(chunk);
+      fresh.add(chunk);
+
+      if (chunk.end >= editEnd) {
+        while (candidate < chunks.size() - 1 && end(candidate) < chunk.end) {
+          candidate++;
+        }
+        if (candidate < chunks.size() - 1 && end(candidate) == chunk.end) {
+          kept = candidate + 1;
+          // counted from what the scanner makes of the lines, since a block comment doesn't count the ones inside it
+          move(kept, 0, chunk.endLine - endLine(candidate));
+          break;
+        }
+      }
+    }
+
+    if (kept < 0) {
+      Chunk tail = new Chunk();
+      tail.end = text.length();
+      tail.endLine = tokens.lastLine;
+      tokens.takeErrors(tail);
+      fresh.add(tail);
+      kept = chunks.size();
+      // every chunk with a move pending is replaced
+      pendingFrom = kept;
+      pendingChars = 0;
+      pendingLines = 0;
+    }
+    chunks.subList(first, kept).clear();
+    chunks.addAll(first, fresh);
+    // the moves pending start at or after the chunks that were kept
+    pendingFrom += fresh.size() - (kept - first);
+  }
+}
@@ -0,0 +1,46 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The layout of a LoxInstance's fields, a.k.a. a hidden class. Every LoxClass has a root shape with no fields, and
+ * setting a new field moves an instance along to the shape with that field added. Instances of the same class that
+ * get their fields in the same order end up sharing the same shapes, so the name to index mapping is stored once per
+ * shape instead of once per instance.
+ */
+class Shape {
+    private final Map<String, Integer> indices;
+    // the shapes reached from this one by adding a field, shared between every instance that passes through here
+    private final Map<String, Shape> transitions = new HashMap<>();
+
+    Shape() {
+        this.indices = new HashMap<>();
+    }
+
+    private Shape(Shape parent, String field) {
+        this.indices = new HashMap<>(parent.indices);
+        this.indices.put(field, parent.indices.size());
+    }
+
+    /**
+     * @return where the field lives in an instance's values, or -1 if instances of this shape don't have it
+     */
+    int indexOf(String field) {
+        Integer index = indices.get(field);
+        return index == null ? -1 : index;
+    }
+
+    Shape withField(String field) {
+        Shape shape = transitions.get(field);
+        if (shape == null) {
+            shape = new Shape(this, field);
+            transitions.put(field, shape);
+        }
+        return shape;
+    }
+
+    int size() {
+        return indices.size();
+    }
+}
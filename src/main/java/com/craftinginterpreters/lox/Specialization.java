@@ -0,0 +1,17 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * What a node has specialized itself to, based on the values it has seen so far. Nodes start out UNINITIALIZED,
+ * specialize on their first execution and fall back to GENERIC for good the first time the guess turns out wrong,
+ * so a node can't flip back and forth between specializations.
+ */
+enum Specialization {
+  UNINITIALIZED,
+  // both operands were numbers
+  NUMBERS,
+  // both operands were strings
+  STRINGS,
+  // always the same callee
+  MONOMORPHIC,
+  GENERIC,
+}
@@ -7,6 +7,7 @@ abstract class Stmt {
     R visitBlockStmt(Block stmt);
     R visitClassStmt(Class stmt);
     R visitExpressionStmt(Expression stmt);
+    R visitForStmt(For stmt);
     R visitFunctionStmt(Function stmt);
     R visitIfStmt(If stmt);
     R visitPrintStmt(Print stmt);
@@ -24,6 +25,8 @@ abstract class Stmt {
     }
 
     final List<Stmt> statements;
+    boolean scoped = true;
+    boolean captured;
   }
   static class Class extends Stmt {
     Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
@@ -39,6 +42,7 @@ abstract class Stmt {
     final Token name;
     final Expr.Variable superclass;
     final List<Stmt.Function> methods;
+    int slot = -1;
   }
   static class Expression extends Stmt {
     Expression(Expr expression) {
@@ -49,7 +53,25 @@ abstract class Stmt {
       return visitor.visitExpressionStmt(this);
     }
 
-    final Expr expression;
+    Expr expression;
+  }
+  static class For extends Stmt {
+    For(Stmt initializer, Expr condition, Expr increment, Stmt body) {
+      this.initializer = initializer;
+      this.condition = condition;
+      this.increment = increment;
+      this.body = body;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitForStmt(this);
+    }
+
+    Stmt initializer;
+    Expr condition;
+    Expr increment;
+    Stmt body;
+    boolean scoped;
   }
   static class Function extends Stmt {
     Function(Token name, List<Token> params, List<Stmt> body) {
@@ -65,6 +87,13 @@ abstract class Stmt {
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    int slot = -1;
+    int frameSize;
+    boolean scoped;
+    boolean[] capturedParams;
+    transient int calls;
+    transient int deoptimizations;
+    transient CompiledFunction compiled;
   }
   static class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
@@ -77,12 +106,13 @@ abstract class Stmt {
       return visitor.visitIfStmt(this);
     }
 
-    final Expr condition;
-    final Stmt thenBranch;
-    final Stmt elseBranch;
+    Expr condition;
+    Stmt thenBranch;
+    Stmt elseBranch;
   }
   static class Print extends Stmt {
-    Print(Expr expression) {
+    Print(Token keyword, Expr expression) {
+      this.keyword = keyword;
       this.expression = expression;
     }
 
@@ -90,7 +120,8 @@ abstract class Stmt {
       return visitor.visitPrintStmt(this);
     }
 
-    final Expr expression;
+    final Token keyword;
+    Expr expression;
   }
   static class Return extends Stmt {
     Return(Token keyword, Expr value) {
@@ -103,7 +134,7 @@ abstract class Stmt {
     }
 
     final Token keyword;
-    final Expr value;
+    Expr value;
   }
   static class Var extends Stmt {
     Var(Token name, Expr initializer) {
@@ -116,7 +147,8 @@ abstract class Stmt {
     }
 
     final Token name;
-    final Expr initializer;
+    Expr initializer;
+    int slot = -1;
   }
   static class While extends Stmt {
     While(Expr condition, Stmt body) {
@@ -128,8 +160,8 @@ abstract class Stmt {
       return visitor.visitWhileStmt(this);
     }
 
-    final Expr condition;
-    final Stmt body;
+    Expr condition;
+    Stmt body;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
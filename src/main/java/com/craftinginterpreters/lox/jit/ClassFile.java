@@ -0,0 +1,176 @@
+package com.craftinginterpreters.lox.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal writer for JVM class files, just enough for the JIT to emit a class with a handful of methods.
+ *
+ * Classes are written as version 49 (Java 5). That predates StackMapTable frames, so the JVM checks what we emit with
+ * its type inferring verifier and we never have to compute frames ourselves.
+ */
+public final class ClassFile {
+  public static final int ACC_PUBLIC = 0x0001;
+  public static final int ACC_FINAL = 0x0010;
+  private static final int ACC_SUPER = 0x0020;
+  private static final int MAGIC = 0xCAFEBABE;
+  private static final int MAJOR_VERSION = 49;
+
+  private static final byte CONSTANT_UTF8 = 1;
+  private static final byte CONSTANT_DOUBLE = 6;
+  private static final byte CONSTANT_CLASS = 7;
+  private static final byte CONSTANT_STRING = 8;
+  private static final byte CONSTANT_FIELDREF = 9;
+  private static final byte CONSTANT_METHODREF = 10;
+  private static final byte CONSTANT_INTERFACE_METHODREF = 11;
+  private static final byte CONSTANT_NAME_AND_TYPE = 12;
+
+  private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+  private final DataOutputStream pool = new DataOutputStream(poolBytes);
+  private final Map<String, Integer> poolIndex = new HashMap<>();
+  private int poolCount = 1;
+
+  private final int thisClass;
+  private final int superClass;
+  private final int[] interfaces;
+  private final List<Code> methods = new ArrayList<>();
+
+  public ClassFile(String name, String superName, String... interfaceNames) {
+    this.thisClass = classRef(name);
+    this.superClass = classRef(superName);
+    this.interfaces = new int[interfaceNames.length];
+    for (int i = 0; i < interfaceNames.length; i++) {
+      interfaces[i] = classRef(interfaceNames[i]);
+    }
+  }
+
+  public Code addMethod(int access, String name, String descriptor) {
+    Code code = new Code(this, access, utf8(name), utf8(descriptor), descriptor);
+    methods.add(code);
+    return code;
+  }
+
+  public byte[] toByteArray() {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      int codeAttribute = utf8("Code");
+
+      out.writeInt(MAGIC);
+      out.writeShort(0);
+      out.writeShort(MAJOR_VERSION);
+      out.writeShort(poolCount);
+      pool.flush();
+      poolBytes.writeTo(out);
+
+      out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(interfaces.length);
+      for (int anInterface : interfaces) {
+        out.writeShort(anInterface);
+      }
+      // no fields
+      out.writeShort(0);
+      out.writeShort(methods.size());
+      for (Code method : methods) {
+        method.writeTo(out, codeAttribute);
+      }
+      // no class attributes
+      out.writeShort(0);
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      // only ever writing to memory
+      throw new IllegalStateException(e);
+    }
+  }
+
+  int utf8(String value) {
+    return constant("U" + value, 1, () -> {
+      pool.writeByte(CONSTANT_UTF8);
+      pool.writeUTF(value);
+    });
+  }
+
+  int classRef(String internalName) {
+    int name = utf8(internalName);
+    return constant("C" + internalName, 1, () -> {
+      pool.writeByte(CONSTANT_CLASS);
+      pool.writeShort(name);
+    });
+  }
+
+  int string(String value) {
+    int utf8 = utf8(value);
+    return constant("S" + value, 1, () -> {
+      pool.writeByte(CONSTANT_STRING);
+      pool.writeShort(utf8);
+    });
+  }
+
+  int doubleConstant(double value) {
+    long bits = Double.doubleToRawLongBits(value);
+    // doubles take up two entries in the pool
+    return constant("D" + bits, 2, () -> {
+      pool.writeByte(CONSTANT_DOUBLE);
+      pool.writeLong(bits);
+    });
+  }
+
+  int fieldRef(String owner, String name, String descriptor) {
+    return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+  }
+
+  int methodRef(String owner, String name, String descriptor) {
+    return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+  }
+
+  int interfaceMethodRef(String owner, String name, String descriptor) {
+    return memberRef(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor);
+  }
+
+  private int memberRef(byte tag, String owner, String name, String descriptor) {
+    int ownerIndex = classRef(owner);
+    int nameIndex = utf8(name);
+    int descriptorIndex = utf8(descriptor);
+    int nameAndType = constant("N" + name + " " + descriptor, 1, () -> {
+      pool.writeByte(CONSTANT_NAME_AND_TYPE);
+      pool.writeShort(nameIndex);
+      pool.writeShort(descriptorIndex);
+    });
+    return constant(tag + owner + "." + name + " " + descriptor, 1, () -> {
+      pool.writeByte(tag);
+      pool.writeShort(ownerIndex);
+      pool.writeShort(nameAndType);
+    });
+  }
+
+  private interface PoolWriter {
+    void write() throws IOException;
+  }
+
+  private int constant(String key, int size, PoolWriter writer) {
+    Integer existing = poolIndex.get(key);
+    if (existing != null) {
+      return existing;
+    }
+    if (poolCount + size > 0xffff) {
+      throw new IllegalStateException("Constant pool overflow");
+    }
+
+    try {
+      writer.write();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    int index = poolCount;
+    poolCount += size;
+    poolIndex.put(key, index);
+    return index;
+  }
+}
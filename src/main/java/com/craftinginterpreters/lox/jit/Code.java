@@ -0,0 +1,331 @@
+package com.craftinginterpreters.lox.jit;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The body of a single method. Keeps track of the operand stack depth as instructions are added so max_stack can be
+ * filled in for us.
+ */
+public final class Code {
+  public static final int ACONST_NULL = 1;
+  public static final int ICONST_0 = 3;
+  public static final int ICONST_1 = 4;
+  public static final int LDC_W = 19;
+  public static final int LDC2_W = 20;
+  public static final int DLOAD = 24;
+  public static final int ALOAD = 25;
+  public static final int AALOAD = 50;
+  public static final int DSTORE = 57;
+  public static final int ASTORE = 58;
+  public static final int AASTORE = 83;
+  public static final int POP = 87;
+  public static final int POP2 = 88;
+  public static final int DUP = 89;
+  public static final int DUP2 = 92;
+  public static final int DADD = 99;
+  public static final int DSUB = 103;
+  public static final int DMUL = 107;
+  public static final int DNEG = 119;
+  public static final int DCMPL = 151;
+  public static final int DCMPG = 152;
+  public static final int IFEQ = 153;
+  public static final int IFNE = 154;
+  public static final int IFLT = 155;
+  public static final int IFGE = 156;
+  public static final int IFGT = 157;
+  public static final int IFLE = 158;
+  public static final int GOTO = 167;
+  public static final int ARETURN = 176;
+  public static final int RETURN = 177;
+  public static final int INVOKEVIRTUAL = 182;
+  public static final int INVOKESPECIAL = 183;
+  public static final int INVOKESTATIC = 184;
+  public static final int INVOKEINTERFACE = 185;
+  public static final int ANEWARRAY = 189;
+  public static final int CHECKCAST = 192;
+  private static final int BIPUSH = 16;
+  private static final int SIPUSH = 17;
+  private static final int WIDE = 196;
+
+  private final ClassFile classFile;
+  private final int access;
+  private final int name;
+  private final int descriptor;
+
+  private byte[] code = new byte[256];
+  private int length = 0;
+  private int maxLocals;
+  private int stackDepth = 0;
+  private int maxStack = 0;
+  // false right after an unconditional jump or return, until a label is bound
+  private boolean reachable = true;
+
+  Code(ClassFile classFile, int access, int name, int descriptor, String descriptorText) {
+    this.classFile = classFile;
+    this.access = access;
+    this.name = name;
+    this.descriptor = descriptor;
+    // 'this' plus the parameters, callers bump this as they hand out more locals
+    this.maxLocals = argumentSlots(descriptorText) + 1;
+  }
+
+  public void reserveLocals(int count) {
+    maxLocals = Math.max(maxLocals, count);
+  }
+
+  /**
+   * Adds an instruction that has no operands.
+   */
+  public void op(int opcode) {
+    write(opcode);
+    switch (opcode) {
+      case ACONST_NULL:
+      case ICONST_0:
+      case ICONST_1:
+      case DUP:
+        adjustStack(1);
+        break;
+      case DUP2:
+        adjustStack(2);
+        break;
+      case AALOAD:
+      case POP:
+        adjustStack(-1);
+        break;
+      case POP2:
+      case DADD:
+      case DSUB:
+      case DMUL:
+        adjustStack(-2);
+        break;
+      case AASTORE:
+      case DCMPL:
+      case DCMPG:
+        adjustStack(-3);
+        break;
+      case DNEG:
+        break;
+      case ARETURN:
+        adjustStack(-1);
+        reachable = false;
+        break;
+      case RETURN:
+        reachable = false;
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported opcode " + opcode);
+    }
+  }
+
+  public void iconst(int value) {
+    if (value >= -1 && value <= 5) {
+      write(ICONST_0 + value);
+    } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+      write(BIPUSH);
+      write(value);
+    } else {
+      write(SIPUSH);
+      writeShort(value);
+    }
+    adjustStack(1);
+  }
+
+  public void ldc(String value) {
+    write(LDC_W);
+    writeShort(classFile.string(value));
+    adjustStack(1);
+  }
+
+  public void ldc(double value) {
+    write(LDC2_W);
+    writeShort(classFile.doubleConstant(value));
+    adjustStack(2);
+  }
+
+  public void dload(int local) {
+    local(DLOAD, local);
+    adjustStack(2);
+  }
+
+  public void aload(int local) {
+    local(ALOAD, local);
+    adjustStack(1);
+  }
+
+  public void dstore(int local) {
+    local(DSTORE, local);
+    adjustStack(-2);
+  }
+
+  public void astore(int local) {
+    local(ASTORE, local);
+    adjustStack(-1);
+  }
+
+  public void anewarray(String internalName) {
+    write(ANEWARRAY);
+    writeShort(classFile.classRef(internalName));
+  }
+
+  public void checkcast(String internalName) {
+    write(CHECKCAST);
+    writeShort(classFile.classRef(internalName));
+  }
+
+  public void invoke(int opcode, String owner, String name, String descriptor) {
+    write(opcode);
+    if (opcode == INVOKEINTERFACE) {
+      writeShort(classFile.interfaceMethodRef(owner, name, descriptor));
+      write(argumentSlots(descriptor) + 1);
+      write(0);
+    } else {
+      writeShort(classFile.methodRef(owner, name, descriptor));
+    }
+
+    int delta = returnSlots(descriptor) - argumentSlots(descriptor);
+    if (opcode != INVOKESTATIC) {
+      // the receiver
+      delta--;
+    }
+    adjustStack(delta);
+  }
+
+  /**
+   * Adds a (conditional) jump to a label that may not be bound yet.
+   */
+  public void jump(int opcode, Label label) {
+    int instruction = length;
+    write(opcode);
+    if (opcode != GOTO) {
+      // every conditional jump we use pops one int
+      adjustStack(-1);
+    }
+    arrive(label);
+    label.jumps.add(new int[] {instruction, length});
+    writeShort(0);
+    if (label.offset >= 0) {
+      patch(label, instruction, instruction + 1);
+    }
+    if (opcode == GOTO) {
+      reachable = false;
+    }
+  }
+
+  public void bind(Label label) {
+    if (reachable) {
+      arrive(label);
+    } else {
+      // only reachable by jumping here, so pick up the stack depth from the jump
+      stackDepth = Math.max(label.stackDepth, 0);
+      reachable = true;
+    }
+    label.offset = length;
+    for (int[] jump : label.jumps) {
+      patch(label, jump[0], jump[1]);
+    }
+  }
+
+  private void arrive(Label label) {
+    if (label.stackDepth < 0) {
+      label.stackDepth = stackDepth;
+    } else if (label.stackDepth != stackDepth) {
+      throw new IllegalStateException("Inconsistent stack depth at label");
+    }
+  }
+
+  private void patch(Label label, int instruction, int operand) {
+    int offset = label.offset - instruction;
+    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+      throw new IllegalStateException("Method too large");
+    }
+    code[operand] = (byte)(offset >> 8);
+    code[operand + 1] = (byte)offset;
+  }
+
+  private void local(int opcode, int local) {
+    if (local > 0xff) {
+      write(WIDE);
+      write(opcode);
+      writeShort(local);
+    } else {
+      write(opcode);
+      write(local);
+    }
+  }
+
+  private void adjustStack(int delta) {
+    stackDepth += delta;
+    maxStack = Math.max(maxStack, stackDepth);
+  }
+
+  private void write(int value) {
+    if (length == code.length) {
+      code = Arrays.copyOf(code, length * 2);
+    }
+    code[length++] = (byte)value;
+  }
+
+  private void writeShort(int value) {
+    write(value >> 8);
+    write(value);
+  }
+
+  void writeTo(DataOutputStream out, int codeAttribute) throws IOException {
+    if (length > 0xffff) {
+      throw new IllegalStateException("Method too large");
+    }
+
+    out.writeShort(access);
+    out.writeShort(name);
+    out.writeShort(descriptor);
+    out.writeShort(1);
+
+    out.writeShort(codeAttribute);
+    // max_stack, max_locals, code_length, the code, and empty exception and attribute tables
+    out.writeInt(12 + length);
+    out.writeShort(maxStack);
+    out.writeShort(maxLocals);
+    out.writeInt(length);
+    out.write(code, 0, length);
+    out.writeShort(0);
+    out.writeShort(0);
+  }
+
+  private static int argumentSlots(String descriptor) {
+    int slots = 0;
+    int i = 1;
+    while (descriptor.charAt(i) != ')') {
+      char c = descriptor.charAt(i);
+      if (c == 'D' || c == 'J') {
+        slots += 2;
+        i++;
+      } else if (c == 'L') {
+        slots++;
+        i = descriptor.indexOf(';', i) + 1;
+      } else if (c == '[') {
+        while (descriptor.charAt(i) == '[') {
+          i++;
+        }
+        if (descriptor.charAt(i) == 'L') {
+          i = descriptor.indexOf(';', i);
+        }
+        slots++;
+        i++;
+      } else {
+        slots++;
+        i++;
+      }
+    }
+    return slots;
+  }
+
+  private static int returnSlots(String descriptor) {
+    char c = descriptor.charAt(descriptor.indexOf(')') + 1);
+    if (c == 'V') {
+      return 0;
+    }
+    return c == 'D' || c == 'J' ? 2 : 1;
+  }
+}
@@ -0,0 +1,15 @@
+package com.craftinginterpreters.lox.jit;
+
+/**
+ * Defines a single generated class. Every compiled function gets a loader of its own, so its class can be unloaded
+ * once nothing refers to the function anymore.
+ */
+public final class JitClassLoader extends ClassLoader {
+  public JitClassLoader(ClassLoader parent) {
+    super(parent);
+  }
+
+  public Class<?> define(String name, byte[] bytes) {
+    return defineClass(name, bytes, 0, bytes.length);
+  }
+}
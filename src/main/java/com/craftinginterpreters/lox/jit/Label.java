@@ -0,0 +1,15 @@
+package com.craftinginterpreters.lox.jit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A position in a method's code that jumps can target before it's known where it is.
+ */
+public final class Label {
+  int offset = -1;
+  // the operand stack depth on arrival, taken from whichever jump or fall through reaches it first
+  int stackDepth = -1;
+  // (instruction offset, operand offset) pairs for every jump to back patch once the label is bound
+  final List<int[]> jumps = new ArrayList<>();
+}
@@ -0,0 +1,62 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.util.Arrays;
+
+/**
+ * A sequence of bytecode along with the constants it refers to and the source line of every byte, used when reporting
+ * runtime errors.
+ */
+public final class Chunk {
+  byte[] code = new byte[64];
+  int[] lines = new int[64];
+  int count = 0;
+  Object[] constants = new Object[8];
+  int constantCount = 0;
+
+  public void write(byte value, int line) {
+    if (count == code.length) {
+      code = Arrays.copyOf(code, count * 2);
+      lines = Arrays.copyOf(lines, count * 2);
+    }
+    code[count] = value;
+    lines[count] = line;
+    count++;
+  }
+
+  public void writeShort(int value, int line) {
+    write((byte)((value >> 8) & 0xff), line);
+    write((byte)(value & 0xff), line);
+  }
+
+  /**
+   * Overwrites the two byte operand at {@code offset}, used to back patch jumps once their target is known.
+   */
+  public void patchShort(int offset, int value) {
+    code[offset] = (byte)((value >> 8) & 0xff);
+    code[offset + 1] = (byte)(value & 0xff);
+  }
+
+  /**
+   * Adds a value to the constant pool, reusing an existing slot for equal numbers and strings.
+   * @return the index of the constant
+   */
+  public int addConstant(Object value) {
+    if (value instanceof Double || value instanceof String) {
+      for (int i = 0; i < constantCount; i++) {
+        if (value.equals(constants[i])) {
+          return i;
+        }
+      }
+    }
+
+    if (constantCount == constants.length) {
+      constants = Arrays.copyOf(constants, constantCount * 2);
+    }
+    constants[constantCount] = value;
+    return constantCount++;
+  }
+
+  public int count() {
+    return count;
+  }
+}
@@ -0,0 +1,76 @@
+package com.craftinginterpreters.lox.vm;
+
+/**
+ * The instruction set of the {@link VM}. Every instruction is a single byte, optionally followed by operands. Unless
+ * noted otherwise operands are two bytes wide (big endian).
+ */
+public final class OpCode {
+  // [constant index] push a value from the chunk's constant pool
+  public static final byte CONSTANT = 0;
+  public static final byte NIL = 1;
+  public static final byte TRUE = 2;
+  public static final byte FALSE = 3;
+  public static final byte POP = 4;
+
+  // [depth] [slot] read/write a local that is [depth] scopes out from the current one
+  public static final byte GET_LOCAL = 5;
+  public static final byte SET_LOCAL = 6;
+  // append the value on top of the stack to the current scope, slots are handed out in declaration order
+  public static final byte DEFINE_LOCAL = 7;
+  // [name constant]
+  public static final byte GET_GLOBAL = 8;
+  public static final byte SET_GLOBAL = 9;
+  public static final byte DEFINE_GLOBAL = 10;
+  // [capacity] open a new scope nested in the current one, and drop back out of it
+  public static final byte PUSH_SCOPE = 11;
+  public static final byte POP_SCOPE = 12;
+
+  // [name constant]
+  public static final byte GET_PROPERTY = 13;
+  public static final byte SET_PROPERTY = 14;
+  // fails unless the value on top of the stack is an instance, leaves the stack alone
+  public static final byte CHECK_FIELDS = 15;
+  // [name constant] pops a superclass and 'this', pushes the bound superclass method
+  public static final byte GET_SUPER = 16;
+
+  public static final byte NOT_EQUAL = 17;
+  public static final byte GREATER = 18;
+  public static final byte GREATER_EQUAL = 19;
+  public static final byte LESS = 20;
+  public static final byte LESS_EQUAL = 21;
+  public static final byte ADD = 22;
+  public static final byte SUBTRACT = 23;
+  public static final byte MULTIPLY = 24;
+  public static final byte DIVIDE = 25;
+  public static final byte BANG = 26;
+  public static final byte NEGATE = 27;
+
+  public static final byte PRINT = 28;
+  // [offset] jump forwards
+  public static final byte JUMP = 29;
+  // [offset] jump forwards if the value on top of the stack is falsey, leaves the stack alone
+  public static final byte JUMP_IF_FALSE = 30;
+  // [offset] jump backwards
+  public static final byte LOOP = 31;
+  // [argument count] one byte wide, the callee sits below its arguments on the stack
+  public static final byte CALL = 32;
+  // [function constant] close a function over the current scope
+  public static final byte CLOSURE = 33;
+  public static final byte RETURN = 34;
+
+  // fails unless the value on top of the stack is a class, leaves the stack alone
+  public static final byte CHECK_SUPERCLASS = 35;
+  // [name constant] [has superclass] the second operand is one byte wide, pops the superclass if there is one
+  public static final byte CLASS = 36;
+  // [name constant] pops a method closure and adds it to the class below it
+  public static final byte METHOD = 37;
+
+  // [slot] read/write a local in the current frame, the ones no closure captures never make it into a scope
+  public static final byte GET_FRAME = 38;
+  public static final byte SET_FRAME = 39;
+  // [slot] pops the value on top of the stack into a slot of the current frame
+  public static final byte DEFINE_FRAME = 40;
+
+  private OpCode() {
+  }
+}
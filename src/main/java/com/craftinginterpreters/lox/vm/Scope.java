@@ -0,0 +1,31 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.util.Arrays;
+
+// The VM's equivalent of the tree-walker's Environment, locals are addressed by the same (depth, slot) pairs the
+// Resolver computes. Closures capture a Scope, so these live on the heap rather than on the operand stack.
+final class Scope {
+  final Scope enclosing;
+  Object[] slots;
+  int count = 0;
+
+  Scope(Scope enclosing, int capacity) {
+    this.enclosing = enclosing;
+    this.slots = new Object[Math.max(capacity, 1)];
+  }
+
+  void define(Object value) {
+    if (count == slots.length) {
+      slots = Arrays.copyOf(slots, count * 2);
+    }
+    slots[count++] = value;
+  }
+
+  Scope ancestor(int distance) {
+    Scope scope = this;
+    for (int i = 0; i < distance; i++) {
+      scope = scope.enclosing;
+    }
+    return scope;
+  }
+}
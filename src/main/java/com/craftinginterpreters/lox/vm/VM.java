@@ -0,0 +1,490 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import com.craftinginterpreters.lox.Numbers;
+
+/**
+ * Runs compiled chunks on an array-based operand stack. Globals persist between calls to {@link #interpret}, which is
+ * what the REPL relies on.
+ */
+public final class VM {
+  // one activation of a closure, the operand stack is shared and each frame starts at its own base
+  private static final class CallFrame {
+    final VmClosure closure;
+    final byte[] code;
+    final Object[] constants;
+    int ip = 0;
+    Scope scope;
+    final int base;
+
+    CallFrame(VmClosure closure, Scope scope, int base) {
+      this.closure = closure;
+      this.code = closure.function.chunk.code;
+      this.constants = closure.function.chunk.constants;
+      this.scope = scope;
+      this.base = base;
+    }
+  }
+
+  private final Consumer<String> out;
+  private final Map<String, Object> globals = new HashMap<>();
+  private Object[] stack = new Object[256];
+  private int stackTop = 0;
+  private CallFrame[] frames = new CallFrame[64];
+  private int frameCount = 0;
+
+  public VM() {
+    this(System.out);
+  }
+
+  /**
+   * @param out where PRINT writes to
+   */
+  public VM(PrintStream out) {
+    this(out::println);
+  }
+
+  /**
+   * @param out handed each line PRINT writes
+   */
+  public VM(Consumer<String> out) {
+    this.out = out;
+    // functions and variables occupy the same namespace
+    globals.put("CLOCK", new VmNative() {
+      @Override
+      public int arity() {
+        return 0;
+      }
+
+      @Override
+      public Object call(Object[] arguments) {
+        return (double)System.currentTimeMillis()/1000.0;
+      }
+
+      @Override
+      public String toString() {
+        return "<NATIVE FN>";
+      }
+    });
+  }
+
+  /**
+   * Runs a compiled top level script.
+   * @throws VmRuntimeError if the script fails, the VM is left ready to run another script
+   */
+  public void interpret(VmFunction script) {
+    stackTop = 0;
+    frameCount = 0;
+    pushFrame(new CallFrame(new VmClosure(script, null), null, 0));
+    try {
+      run();
+    } finally {
+      Arrays.fill(stack, 0, stack.length, null);
+      Arrays.fill(frames, 0, frameCount, null);
+      stackTop = 0;
+      frameCount = 0;
+    }
+  }
+
+  private void run() {
+    CallFrame frame = frames[frameCount - 1];
+    byte[] code = frame.code;
+
+    for (;;) {
+      byte instruction = code[frame.ip++];
+      switch (instruction) {
+        case OpCode.CONSTANT:
+          push(frame.constants[readShort(frame)]);
+          break;
+        case OpCode.NIL:
+          push(null);
+          break;
+        case OpCode.TRUE:
+          push(true);
+          break;
+        case OpCode.FALSE:
+          push(false);
+          break;
+        case OpCode.POP:
+          stack[--stackTop] = null;
+          break;
+        case OpCode.GET_LOCAL: {
+          int depth = readShort(frame);
+          int slot = readShort(frame);
+          push(frame.scope.ancestor(depth).slots[slot]);
+          break;
+        }
+        case OpCode.SET_LOCAL: {
+          int depth = readShort(frame);
+          int slot = readShort(frame);
+          frame.scope.ancestor(depth).slots[slot] = peek(0);
+          break;
+        }
+        case OpCode.DEFINE_LOCAL:
+          frame.scope.define(pop());
+          break;
+        case OpCode.GET_FRAME:
+          push(stack[frame.base + readShort(frame)]);
+          break;
+        case OpCode.SET_FRAME:
+          stack[frame.base + readShort(frame)] = peek(0);
+          break;
+        case OpCode.DEFINE_FRAME: {
+          int slot = readShort(frame);
+          stack[frame.base + slot] = pop();
+          break;
+        }
+        case OpCode.GET_GLOBAL: {
+          String name = (String)frame.constants[readShort(frame)];
+          Object value = globals.get(name);
+          if (value == null && !globals.containsKey(name)) {
+            throw error(frame, "UNDEFINED VARIABLE '" + name + "'!");
+          }
+          push(value);
+          break;
+        }
+        case OpCode.SET_GLOBAL: {
+          String name = (String)frame.constants[readShort(frame)];
+          if (!globals.containsKey(name)) {
+            throw error(frame, "UNDEFINED VARIABLE '" + name + "'!");
+          }
+          globals.put(name, peek(0));
+          break;
+        }
+        case OpCode.DEFINE_GLOBAL:
+          globals.put((String)frame.constants[readShort(frame)], pop());
+          break;
+        case OpCode.PUSH_SCOPE:
+          frame.scope = new Scope(frame.scope, readShort(frame));
+          break;
+        case OpCode.POP_SCOPE:
+          frame.scope = frame.scope.enclosing;
+          break;
+        case OpCode.GET_PROPERTY: {
+          String name = (String)frame.constants[readShort(frame)];
+          Object object = pop();
+          if (!(object instanceof VmInstance)) {
+            throw error(frame, "ONLY INSTANCES HAVE PROPERTIES!");
+          }
+          VmInstance instance = (VmInstance)object;
+          if (instance.fields.containsKey(name)) {
+            push(instance.fields.get(name));
+            break;
+          }
+          VmClosure method = instance.klass.findMethod(name);
+          if (method == null) {
+            throw error(frame, "UNDEFINED PROPERTY '" + name + "'!");
+          }
+          push(method.bind(instance));
+          break;
+        }
+        case OpCode.CHECK_FIELDS:
+          if (!(peek(0) instanceof VmInstance)) {
+            throw error(frame, "ONLY INSTANCES HAVE FIELDS!");
+          }
+          break;
+        case OpCode.SET_PROPERTY: {
+          String name = (String)frame.constants[readShort(frame)];
+          Object value = pop();
+          VmInstance instance = (VmInstance)pop();
+          instance.fields.put(name, value);
+          // assigning to a field evaluates to nil, same as the tree-walker
+          push(null);
+          break;
+        }
+        case OpCode.GET_SUPER: {
+          String name = (String)frame.constants[readShort(frame)];
+          VmClass superclass = (VmClass)pop();
+          VmInstance instance = (VmInstance)pop();
+          VmClosure method = superclass.findMethod(name);
+          if (method == null) {
+            throw error(frame, "UNDEFINED PROPERTY '" + name + "'!");
+          }
+          push(method.bind(instance));
+          break;
+        }
+        case OpCode.NOT_EQUAL: {
+          Object b = pop();
+          Object a = pop();
+          push(!isEqual(a, b));
+          break;
+        }
+        case OpCode.GREATER: {
+          checkNumberOperands(frame);
+          double b = (double)pop();
+          push((double)pop() > b);
+          break;
+        }
+        case OpCode.GREATER_EQUAL: {
+          checkNumberOperands(frame);
+          double b = (double)pop();
+          push((double)pop() >= b);
+          break;
+        }
+        case OpCode.LESS: {
+          checkNumberOperands(frame);
+          double b = (double)pop();
+          push((double)pop() < b);
+          break;
+        }
+        case OpCode.LESS_EQUAL: {
+          checkNumberOperands(frame);
+          double b = (double)pop();
+          push((double)pop() <= b);
+          break;
+        }
+        case OpCode.ADD: {
+          Object b = pop();
+          Object a = pop();
+          if (a instanceof Double && b instanceof Double) {
+            push((double)a + (double)b);
+          } else if (a instanceof String || b instanceof String) {
+            push(stringify(a) + stringify(b));
+          } else {
+            throw error(frame, "OPERANDS MUST BE TWO NUMBERS OR ONE MUST BE A STRING!");
+          }
+          break;
+        }
+        case OpCode.SUBTRACT: {
+          checkNumberOperands(frame);
+          double b = (double)pop();
+          push((double)pop() - b);
+          break;
+        }
+        case OpCode.MULTIPLY: {
+          checkNumberOperands(frame);
+          double b = (double)pop();
+          push((double)pop() * b);
+          break;
+        }
+        case OpCode.DIVIDE: {
+          checkNumberOperands(frame);
+          double b = (double)pop();
+          if (b == 0.0) {
+            throw error(frame, "CANNOT DIVIDE BY ZERO!");
+          }
+          push((double)pop() / b);
+          break;
+        }
+        case OpCode.BANG:
+          // mirrors Interpreter.visitUnaryExpr, which hands back the operand's truthiness as is
+          push(isTruthy(pop()));
+          break;
+        case OpCode.NEGATE:
+          if (!(peek(0) instanceof Double)) {
+            throw error(frame, "OPERAND MUST BE A NUMBER!");
+          }
+          push(-(double)pop());
+          break;
+        case OpCode.PRINT:
+          out.accept(stringify(pop()));
+          break;
+        case OpCode.JUMP: {
+          int offset = readShort(frame);
+          frame.ip += offset;
+          break;
+        }
+        case OpCode.JUMP_IF_FALSE: {
+          int offset = readShort(frame);
+          if (!isTruthy(peek(0))) {
+            frame.ip += offset;
+          }
+          break;
+        }
+        case OpCode.LOOP: {
+          int offset = readShort(frame);
+          frame.ip -= offset;
+          break;
+        }
+        case OpCode.CALL: {
+          int argCount = code[frame.ip++] & 0xff;
+          callValue(frame, stack[stackTop - argCount - 1], argCount);
+          frame = frames[frameCount - 1];
+          code = frame.code;
+          break;
+        }
+        case OpCode.CLOSURE:
+          push(new VmClosure((VmFunction)frame.constants[readShort(frame)], frame.scope));
+          break;
+        case OpCode.RETURN: {
+          Object result = pop();
+          if (frame.closure.function.isInitializer) {
+            result = frame.closure.scope.slots[0];
+          }
+          frames[--frameCount] = null;
+          if (frameCount == 0) {
+            return;
+          }
+          // the callee sits just below the frame
+          Arrays.fill(stack, frame.base - 1, stackTop, null);
+          stackTop = frame.base - 1;
+          push(result);
+          frame = frames[frameCount - 1];
+          code = frame.code;
+          break;
+        }
+        case OpCode.CHECK_SUPERCLASS:
+          if (!(peek(0) instanceof VmClass)) {
+            throw error(frame, "SUPERCLASS MUST BE A CLASS!");
+          }
+          break;
+        case OpCode.CLASS: {
+          String name = (String)frame.constants[readShort(frame)];
+          boolean hasSuperclass = code[frame.ip++] != 0;
+          VmClass superclass = hasSuperclass ? (VmClass)pop() : null;
+          push(new VmClass(name, superclass));
+          break;
+        }
+        case OpCode.METHOD: {
+          String name = (String)frame.constants[readShort(frame)];
+          VmClosure method = (VmClosure)pop();
+          ((VmClass)peek(0)).methods.put(name, method);
+          break;
+        }
+        default:
+          throw new IllegalStateException("Unknown opcode " + instruction);
+      }
+    }
+  }
+
+  private void callValue(CallFrame frame, Object callee, int argCount) {
+    if (callee instanceof VmClosure) {
+      call(frame, (VmClosure)callee, argCount);
+    } else if (callee instanceof VmClass) {
+      VmClass klass = (VmClass)callee;
+      VmInstance instance = new VmInstance(klass);
+      VmClosure initializer = klass.findMethod("INIT");
+      if (initializer != null) {
+        // an initializer always hands back 'this', so its frame leaves the new instance on the stack for us
+        call(frame, initializer.bind(instance), argCount);
+      } else {
+        checkArity(frame, 0, argCount);
+        stackTop -= argCount + 1;
+        push(instance);
+      }
+    } else if (callee instanceof VmNative) {
+      VmNative function = (VmNative)callee;
+      checkArity(frame, function.arity(), argCount);
+      Object[] arguments = Arrays.copyOfRange(stack, stackTop - argCount, stackTop);
+      Object result = function.call(arguments);
+      Arrays.fill(stack, stackTop - argCount - 1, stackTop, null);
+      stackTop -= argCount + 1;
+      push(result);
+    } else {
+      throw error(frame, "CAN ONLY CALL FUNCTIONS AND CLASSES!");
+    }
+  }
+
+  private void call(CallFrame frame, VmClosure closure, int argCount) {
+    checkArity(frame, closure.function.arity, argCount);
+
+    // arguments stay where they are and become the first slots of the frame, unless a closure captures them, in which
+    // case they move into the function's scope. The callee stays below the frame until it returns
+    VmFunction function = closure.function;
+    int base = stackTop - argCount;
+    Scope scope = closure.scope;
+    if (function.capturedParams != null) {
+      scope = new Scope(closure.scope, function.localCount);
+      int slot = base;
+      for (int i = 0; i < argCount; i++) {
+        if (function.capturedParams[i]) {
+          scope.define(stack[base + i]);
+        } else {
+          stack[slot++] = stack[base + i];
+        }
+      }
+      Arrays.fill(stack, slot, stackTop, null);
+    } else if (function.localCount > 0) {
+      scope = new Scope(closure.scope, function.localCount);
+    }
+
+    stackTop = base + function.frameSize;
+    if (stackTop > stack.length) {
+      stack = Arrays.copyOf(stack, Math.max(stackTop, stack.length * 2));
+    }
+    pushFrame(new CallFrame(closure, scope, base));
+  }
+
+  private void checkArity(CallFrame frame, int arity, int argCount) {
+    if (arity != argCount) {
+      throw error(frame, "EXPECTED " + arity + " ARGUMENTS BUT GOT " + argCount + "!");
+    }
+  }
+
+  private void pushFrame(CallFrame frame) {
+    if (frameCount == frames.length) {
+      frames = Arrays.copyOf(frames, frameCount * 2);
+    }
+    frames[frameCount++] = frame;
+  }
+
+  private void push(Object value) {
+    if (stackTop == stack.length) {
+      stack = Arrays.copyOf(stack, stackTop * 2);
+    }
+    stack[stackTop++] = value;
+  }
+
+  private Object pop() {
+    Object value = stack[--stackTop];
+    stack[stackTop] = null;
+    return value;
+  }
+
+  private Object peek(int distance) {
+    return stack[stackTop - 1 - distance];
+  }
+
+  private int readShort(CallFrame frame) {
+    frame.ip += 2;
+    return ((frame.code[frame.ip - 2] & 0xff) << 8) | (frame.code[frame.ip - 1] & 0xff);
+  }
+
+  private void checkNumberOperands(CallFrame frame) {
+    if (peek(0) instanceof Double && peek(1) instanceof Double) {
+      return;
+    }
+    throw error(frame, "OPERANDS MUST BE NUMBERS!");
+  }
+
+  private VmRuntimeError error(CallFrame frame, String message) {
+    // ip has already moved past the failing instruction, any of its bytes carries the right line
+    return new VmRuntimeError(message, frame.closure.function.chunk.lines[frame.ip - 1]);
+  }
+
+  private static boolean isTruthy(Object object) {
+    if (object == null) {
+      return false;
+    }
+    if (object instanceof Boolean) {
+      return (boolean)object;
+    }
+    return true;
+  }
+
+  private static boolean isEqual(Object a, Object b) {
+    if (a == null && b == null) {
+      return true;
+    }
+    if (a == null) {
+      return false;
+    }
+    return a.equals(b);
+  }
+
+  private static String stringify(Object object) {
+    if (object == null) {
+      return "NIL";
+    }
+
+    if (object instanceof Double) {
+      return Numbers.toString((double)object);
+    }
+    return object.toString();
+  }
+}
@@ -0,0 +1,31 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class VmClass {
+  final String name;
+  final VmClass superclass;
+  final Map<String, VmClosure> methods = new HashMap<>();
+
+  VmClass(String name, VmClass superclass) {
+    this.name = name;
+    this.superclass = superclass;
+  }
+
+  VmClosure findMethod(String name) {
+    VmClosure method = methods.get(name);
+    if (method != null) {
+      return method;
+    }
+    if (superclass != null) {
+      return superclass.findMethod(name);
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,23 @@
+package com.craftinginterpreters.lox.vm;
+
+final class VmClosure {
+  final VmFunction function;
+  final Scope scope;
+
+  VmClosure(VmFunction function, Scope scope) {
+    this.function = function;
+    this.scope = scope;
+  }
+
+  VmClosure bind(VmInstance instance) {
+    // same as the tree-walker, 'this' lives alone in a scope between the method and the class
+    Scope scope = new Scope(this.scope, 1);
+    scope.define(instance);
+    return new VmClosure(function, scope);
+  }
+
+  @Override
+  public String toString() {
+    return function.toString();
+  }
+}
@@ -0,0 +1,36 @@
+package com.craftinginterpreters.lox.vm;
+
+/**
+ * The compiled form of a function declaration. Closing over a scope at runtime turns it into a {@link VmClosure}.
+ */
+public final class VmFunction {
+  final String name;
+  final int arity;
+  // how many slots to reserve for the function's scope, zero if nothing in it is captured and it doesn't need one
+  final int localCount;
+  // how many slots to reserve on the operand stack for the locals no closure captures, parameters first
+  final int frameSize;
+  // which parameters go in the function's scope instead of its frame, null if none do
+  final boolean[] capturedParams;
+  final boolean isInitializer;
+  final Chunk chunk = new Chunk();
+
+  public VmFunction(String name, int arity, int localCount, int frameSize, boolean[] capturedParams,
+                    boolean isInitializer) {
+    this.name = name;
+    this.arity = arity;
+    this.localCount = localCount;
+    this.frameSize = frameSize;
+    this.capturedParams = capturedParams;
+    this.isInitializer = isInitializer;
+  }
+
+  public Chunk chunk() {
+    return chunk;
+  }
+
+  @Override
+  public String toString() {
+    return "<FN " + name + ">";
+  }
+}
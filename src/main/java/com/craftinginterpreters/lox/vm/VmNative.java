@@ -0,0 +1,7 @@
+package com.craftinginterpreters.lox.vm;
+
+interface VmNative {
+  int arity();
+
+  Object call(Object[] arguments);
+}
@@ -0,0 +1,16 @@
+package com.craftinginterpreters.lox.vm;
+
+/**
+ * Raised when a script fails at runtime. Carries the source line of the instruction that failed, since the VM no
+ * longer has tokens around to report.
+ */
+public final class VmRuntimeError extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  public final int line;
+
+  VmRuntimeError(String message, int line) {
+    super(message);
+    this.line = line;
+  }
+}
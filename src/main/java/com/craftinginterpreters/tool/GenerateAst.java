@@ -2,6 +2,7 @@ package com.craftinginterpreters.tool;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -12,32 +13,38 @@ public class GenerateAst {
       System.exit(1);
     }
     String outputDir = args[0];
-    defineAst(outputDir, "Expr", Arrays.asList(
-      "Assign   : Token name, Expr value",
-      "Binary   : Expr left, Token operator, Expr right",
-      "Call     : Expr callee, Token paren, List<Expr> arguments",
-      "Get      : Expr object, Token name",
-      "Grouping : Expr expression",
+    List<String> exprTypes = Arrays.asList(
+      // anything after a '|' is filled in after parsing (e.g. by the Resolver) rather than passed to the ctor. Those
+      // marked transient are only filled in at runtime, and aren't serialized
+      "Assign   : Token name, Expr value | int depth = -1, int slot, boolean onStack",
+      "Binary   : Expr left, Token operator, Expr right | boolean numeric, transient Specialization state = Specialization.UNINITIALIZED",
+      "Call     : Expr callee, Token paren, List<Expr> arguments | transient Specialization state = Specialization.UNINITIALIZED, transient LoxCallable cachedCallee, transient long cachedRun",
+      "Get      : Expr object, Token name | transient InlineCache cache = new InlineCache()",
+      "Grouping : Expr expression | boolean numeric",
       "Literal  : Object value",
-      "Set      : Expr object, Token name, Expr value",
-      "Super    : Token keyword, Token method",
-      "This     : Token keyword",
-      "Unary    : Token operator, Expr right",
+      "Set      : Expr object, Token name, Expr value | transient InlineCache cache = new InlineCache()",
+      "Super    : Token keyword, Token method | int depth = -1, transient InlineCache cache = new InlineCache()",
+      "This     : Token keyword | int depth = -1, int slot",
+      "Unary    : Token operator, Expr right | boolean numeric",
       "Logical  : Expr left, Token operator, Expr right",
-      "Variable : Token name"
-    ));
-
-    defineAst(outputDir, "Stmt", Arrays.asList(
-      "Block      : List<Stmt> statements",
-      "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
+      "Variable : Token name | int depth = -1, int slot, boolean onStack"
+    );
+    List<String> stmtTypes = Arrays.asList(
+      "Block      : List<Stmt> statements | boolean scoped = true, boolean captured",
+      "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods | int slot = -1",
       "Expression : Expr expression",
-      "Function   : Token name, List<Token> params, List<Stmt> body",
+      "For        : Stmt initializer, Expr condition, Expr increment, Stmt body | boolean scoped",
+      "Function   : Token name, List<Token> params, List<Stmt> body | int slot = -1, int frameSize, boolean scoped, boolean[] capturedParams, transient int calls, transient int deoptimizations, transient CompiledFunction compiled",
       "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
-      "Print      : Expr expression",
+      "Print      : Token keyword, Expr expression",
       "Return     : Token keyword, Expr value",
-      "Var        : Token name, Expr initializer",
+      "Var        : Token name, Expr initializer | int slot = -1",
       "While      : Expr condition, Stmt body"
-    ));
+    );
+
+    defineAst(outputDir, "Expr", exprTypes);
+    defineAst(outputDir, "Stmt", stmtTypes);
+    defineSerializer(outputDir, exprTypes, stmtTypes);
   }
 
   private static void defineAst(
@@ -59,7 +66,12 @@ public class GenerateAst {
     for (String type : types) {
       String className = type.split(":")[0].trim();
       String fields = type.split(":")[1].trim();
-      defineType(writer, baseName, className, fields);
+      String mutableFields = null;
+      if (fields.contains("|")) {
+        mutableFields = fields.split("\\|")[1].trim();
+        fields = fields.split("\\|")[0].trim();
+      }
+      defineType(writer, baseName, className, fields, mutableFields);
     }
 
     writer.println();
@@ -88,7 +100,8 @@ public class GenerateAst {
     PrintWriter writer,
     String baseName,
     String className,
-    String fieldList
+    String fieldList,
+    String mutableFieldList
   ) {
     writer.println("  static class " + className + " extends " + baseName + " {");
 
@@ -113,9 +126,372 @@ public class GenerateAst {
     // Fields
     writer.println();
     for (String field : fields) {
-      writer.println("    final " + field + ";");
+      // child nodes can be swapped out by passes over the resolved tree, such as the ConstantFolder
+      String type = field.split(" ")[0];
+      boolean replaceable = type.equals("Expr") || type.equals("Stmt");
+      writer.println("    " + (replaceable ? "" : "final ") + field + ";");
+    }
+    if (mutableFieldList != null) {
+      for (String field : mutableFieldList.split(", ")) {
+        writer.println("    " + field + ";");
+      }
+    }
+
+    writer.println("  }");
+  }
+
+  private static void defineSerializer(
+    String outputDir,
+    List<String> exprTypes,
+    List<String> stmtTypes
+  ) throws IOException {
+    String path = outputDir + "/AstSerializer.java";
+    PrintWriter writer = new PrintWriter(path, "UTF-8");
+
+    writer.println("package com.craftinginterpreters.lox;");
+    writer.println();
+    writer.println("import java.io.DataInput;");
+    writer.println("import java.io.DataOutput;");
+    writer.println("import java.io.IOException;");
+    writer.println("import java.util.ArrayList;");
+    writer.println("import java.util.HashMap;");
+    writer.println("import java.util.List;");
+    writer.println("import java.util.Map;");
+    writer.println();
+    writer.println("/**");
+    writer.println(" * Writes a resolved tree out in a compact binary form and reads it back, generated by GenerateAst along with Expr and");
+    writer.println(" * Stmt. Everything the Resolver stored on the nodes is kept, the transient caches start out empty again.");
+    writer.println(" */");
+    writer.println("final class AstSerializer {");
+    writer.println("  // changes along with the node definitions, so a tree is never read back into nodes it wasn't written from");
+    writer.println(String.format("  static final int SCHEMA = 0x%08x;", (exprTypes.toString() + stmtTypes.toString()).hashCode()));
+    writer.println();
+    writer.println("  private final DataOutput out;");
+    writer.println("  private final DataInput in;");
+    writer.println("  // every string is written once, after that it's referred to by its index");
+    writer.println("  private final Map<String, Integer> strings = new HashMap<>();");
+    writer.println("  private final List<String> stringTable = new ArrayList<>();");
+    writer.println();
+    writer.println("  private AstSerializer(DataOutput out, DataInput in) {");
+    writer.println("    this.out = out;");
+    writer.println("    this.in = in;");
+    writer.println("  }");
+    writer.println();
+    writer.println("  static void write(DataOutput out, List<Stmt> statements) throws IOException {");
+    writer.println("    new AstSerializer(out, null).writeStmts(statements);");
+    writer.println("  }");
+    writer.println();
+    writer.println("  static List<Stmt> read(DataInput in) throws IOException {");
+    writer.println("    return new AstSerializer(null, in).readStmts(Stmt.class);");
+    writer.println("  }");
+
+    defineWriter(writer, "Expr", exprTypes);
+    defineReader(writer, "Expr", exprTypes);
+    defineWriter(writer, "Stmt", stmtTypes);
+    defineReader(writer, "Stmt", stmtTypes);
+
+    writer.println();
+    writer.println("  private void writeExprs(List<Expr> exprs) throws IOException {");
+    writer.println("    writeVarInt(exprs.size());");
+    writer.println("    for (Expr expr : exprs) {");
+    writer.println("      writeExpr(expr);");
+    writer.println("    }");
+    writer.println("  }");
+    writer.println();
+    writer.println("  private List<Expr> readExprs() throws IOException {");
+    writer.println("    int size = readVarInt();");
+    writer.println("    List<Expr> exprs = new ArrayList<>(size);");
+    writer.println("    for (int i = 0; i < size; i++) {");
+    writer.println("      exprs.add(readExpr());");
+    writer.println("    }");
+    writer.println("    return exprs;");
+    writer.println("  }");
+    writer.println();
+    writer.println("  private void writeStmts(List<? extends Stmt> stmts) throws IOException {");
+    writer.println("    writeVarInt(stmts.size());");
+    writer.println("    for (Stmt stmt : stmts) {");
+    writer.println("      writeStmt(stmt);");
+    writer.println("    }");
+    writer.println("  }");
+    writer.println();
+    writer.println("  private <T extends Stmt> List<T> readStmts(Class<T> type) throws IOException {");
+    writer.println("    int size = readVarInt();");
+    writer.println("    List<T> stmts = new ArrayList<>(size);");
+    writer.println("    for (int i = 0; i < size; i++) {");
+    writer.println("      stmts.add(type.cast(readStmt()));");
+    writer.println("    }");
+    writer.println("    return stmts;");
+    writer.println("  }");
+    writer.println();
+    writer.println("  private void writeTokens(List<Token> tokens) throws IOException {");
+    writer.println("    writeVarInt(tokens.size());");
+    writer.println("    for (Token token : tokens) {");
+    writer.println("      writeToken(token);");
+    writer.println("    }");
+    writer.println("  }");
+    writer.println();
+    writer.println("  private List<Token> readTokens() throws IOException {");
+    writer.println("    int size = readVarInt();");
+    writer.println("    List<Token> tokens = new ArrayList<>(size);");
+    writer.println("    for (int i = 0; i < size; i++) {");
+    writer.println("      tokens.add(readToken());");
+    writer.println("    }");
+    writer.println("    return tokens;");
+    writer.println("  }");
+    writer.println();
+    writer.println("  // token types are written by name, so reordering TokenType doesn't break trees that were already written");
+    writer.println("  private void writeToken(Token token) throws IOException {");
+    writer.println("    writeString(token.type.name());");
+    writer.println("    writeString(token.lexeme);");
+    writer.println("    writeValue(token.literal);");
+    writer.println("    writeVarInt(token.line);");
+    writer.println("  }");
+    writer.println();
+    writer.println("  private Token readToken() throws IOException {");
+    writer.println("    TokenType type;");
+    writer.println("    try {");
+    writer.println("      type = TokenType.valueOf(readString());");
+    writer.println("    } catch (IllegalArgumentException e) {");
+    writer.println("      throw new IOException(\"UNKNOWN TOKEN TYPE!\", e);");
+    writer.println("    }");
+    writer.println("    return new Token(type, readString(), readValue(), readVarInt());");
+    writer.println("  }");
+    writer.println();
+    writer.println("  private void writeValue(Object value) throws IOException {");
+    writer.println("    if (value == null) {");
+    writer.println("      out.writeByte(0);");
+    writer.println("    } else if (value instanceof Double) {");
+    writer.println("      out.writeByte(1);");
+    writer.println("      out.writeDouble((Double)value);");
+    writer.println("    } else if (value instanceof String) {");
+    writer.println("      out.writeByte(2);");
+    writer.println("      writeString((String)value);");
+    writer.println("    } else if (value instanceof Boolean) {");
+    writer.println("      out.writeByte(3);");
+    writer.println("      out.writeBoolean((Boolean)value);");
+    writer.println("    } else {");
+    writer.println("      throw new IOException(\"CANNOT WRITE A \" + value.getClass().getSimpleName() + \"!\");");
+    writer.println("    }");
+    writer.println("  }");
+    writer.println();
+    writer.println("  private Object readValue() throws IOException {");
+    writer.println("    switch (in.readByte()) {");
+    writer.println("      case 0:");
+    writer.println("        return null;");
+    writer.println("      case 1:");
+    writer.println("        return in.readDouble();");
+    writer.println("      case 2:");
+    writer.println("        return readString();");
+    writer.println("      case 3:");
+    writer.println("        return in.readBoolean();");
+    writer.println("      default:");
+    writer.println("        throw new IOException(\"UNKNOWN VALUE!\");");
+    writer.println("    }");
+    writer.println("  }");
+    writer.println();
+    writer.println("  private void writeString(String string) throws IOException {");
+    writer.println("    Integer index = strings.get(string);");
+    writer.println("    if (index != null) {");
+    writer.println("      writeVarInt(index);");
+    writer.println("      return;");
+    writer.println("    }");
+    writer.println("    writeVarInt(-1);");
+    writer.println("    out.writeUTF(string);");
+    writer.println("    strings.put(string, strings.size());");
+    writer.println("  }");
+    writer.println();
+    writer.println("  private String readString() throws IOException {");
+    writer.println("    int index = readVarInt();");
+    writer.println("    if (index < 0) {");
+    writer.println("      String string = in.readUTF();");
+    writer.println("      stringTable.add(string);");
+    writer.println("      return string;");
+    writer.println("    }");
+    writer.println("    if (index >= stringTable.size()) {");
+    writer.println("      throw new IOException(\"UNKNOWN STRING!\");");
+    writer.println("    }");
+    writer.println("    return stringTable.get(index);");
+    writer.println("  }");
+    writer.println();
+    writer.println("  private void writeBooleans(boolean[] values) throws IOException {");
+    writer.println("    if (values == null) {");
+    writer.println("      writeVarInt(-1);");
+    writer.println("      return;");
+    writer.println("    }");
+    writer.println("    writeVarInt(values.length);");
+    writer.println("    for (boolean value : values) {");
+    writer.println("      out.writeBoolean(value);");
+    writer.println("    }");
+    writer.println("  }");
+    writer.println();
+    writer.println("  private boolean[] readBooleans() throws IOException {");
+    writer.println("    int length = readVarInt();");
+    writer.println("    if (length < 0) {");
+    writer.println("      return null;");
+    writer.println("    }");
+    writer.println("    boolean[] values = new boolean[length];");
+    writer.println("    for (int i = 0; i < length; i++) {");
+    writer.println("      values[i] = in.readBoolean();");
+    writer.println("    }");
+    writer.println("    return values;");
+    writer.println("  }");
+    writer.println();
+    writer.println("  // most ints are small, and some are -1, so they're zigzag encoded seven bits at a time");
+    writer.println("  private void writeVarInt(int value) throws IOException {");
+    writer.println("    int bits = (value << 1) ^ (value >> 31);");
+    writer.println("    while ((bits & ~0x7f) != 0) {");
+    writer.println("      out.writeByte((bits & 0x7f) | 0x80);");
+    writer.println("      bits >>>= 7;");
+    writer.println("    }");
+    writer.println("    out.writeByte(bits);");
+    writer.println("  }");
+    writer.println();
+    writer.println("  private int readVarInt() throws IOException {");
+    writer.println("    int bits = 0;");
+    writer.println("    for (int shift = 0; shift < 35; shift += 7) {");
+    writer.println("      byte b = in.readByte();");
+    writer.println("      bits |= (b & 0x7f) << shift;");
+    writer.println("      if ((b & 0x80) == 0) {");
+    writer.println("        return (bits >>> 1) ^ -(bits & 1);");
+    writer.println("      }");
+    writer.println("    }");
+    writer.println("    throw new IOException(\"MALFORMED INT!\");");
+    writer.println("  }");
+    writer.println("}");
+    writer.close();
+  }
+
+  // a node is written as its tag, its ctor's fields and then the fields filled in after parsing. Tag 0 is null
+  private static void defineWriter(PrintWriter writer, String baseName, List<String> types) {
+    String variable = baseName.toLowerCase();
+    writer.println();
+    writer.println("  private void write" + baseName + "(" + baseName + " " + variable + ") throws IOException {");
+    writer.println("    if (" + variable + " == null) {");
+    writer.println("      out.writeByte(0);");
+    for (int i = 0; i < types.size(); i++) {
+      String className = types.get(i).split(":")[0].trim();
+      writer.println("    } else if (" + variable + " instanceof " + baseName + "." + className + ") {");
+      writer.println("      " + baseName + "." + className + " node = (" + baseName + "." + className + ")" + variable
+        + ";");
+      writer.println("      out.writeByte(" + (i + 1) + ");");
+      for (String field : serializedFields(types.get(i))) {
+        writer.println("      " + writeCall(field.split(" ")[0], "node." + field.split(" ")[1]) + ";");
+      }
     }
+    writer.println("    } else {");
+    writer.println("      throw new IOException(\"UNKNOWN NODE!\");");
+    writer.println("    }");
+    writer.println("  }");
+  }
 
+  private static void defineReader(PrintWriter writer, String baseName, List<String> types) {
+    writer.println();
+    writer.println("  private " + baseName + " read" + baseName + "() throws IOException {");
+    writer.println("    byte tag = in.readByte();");
+    writer.println("    switch (tag) {");
+    writer.println("      case 0:");
+    writer.println("        return null;");
+    for (int i = 0; i < types.size(); i++) {
+      String type = types.get(i);
+      String className = type.split(":")[0].trim();
+      String fields = type.split(":")[1].split("\\|")[0].trim();
+      List<String> arguments = new ArrayList<>();
+      for (String field : fields.split(", ")) {
+        arguments.add(readCall(field.split(" ")[0]));
+      }
+      writer.println("      case " + (i + 1) + ": {");
+      // Java evaluates arguments left to right, the same order they were written in
+      writer.println("        " + baseName + "." + className + " node = new " + baseName + "." + className + "("
+        + String.join(", ", arguments) + ");");
+      List<String> serialized = serializedFields(type);
+      for (String field : serialized.subList(fields.split(", ").length, serialized.size())) {
+        writer.println("        node." + field.split(" ")[1] + " = " + readCall(field.split(" ")[0]) + ";");
+      }
+      writer.println("        return node;");
+      writer.println("      }");
+    }
+    writer.println("      default:");
+    writer.println("        throw new IOException(\"UNKNOWN NODE!\");");
+    writer.println("    }");
     writer.println("  }");
   }
+
+  // "type name" for the ctor's fields followed by the non-transient ones filled in after parsing
+  private static List<String> serializedFields(String type) {
+    String fields = type.split(":")[1].trim();
+    List<String> serialized = new ArrayList<>();
+    String[] parts = fields.split("\\|");
+    serialized.addAll(Arrays.asList(parts[0].trim().split(", ")));
+    if (parts.length > 1) {
+      for (String field : parts[1].trim().split(", ")) {
+        if (field.startsWith("transient ")) {
+          continue;
+        }
+        // drop the initializer
+        String[] words = field.split("=")[0].trim().split(" ");
+        serialized.add(words[0] + " " + words[1]);
+      }
+    }
+    return serialized;
+  }
+
+  private static String writeCall(String type, String value) {
+    switch (type) {
+      case "int":
+        return "writeVarInt(" + value + ")";
+      case "boolean":
+        return "out.writeBoolean(" + value + ")";
+      case "boolean[]":
+        return "writeBooleans(" + value + ")";
+      case "Object":
+        return "writeValue(" + value + ")";
+      case "Token":
+        return "writeToken(" + value + ")";
+      case "List<Token>":
+        return "writeTokens(" + value + ")";
+      case "List<Expr>":
+        return "writeExprs(" + value + ")";
+      default:
+        if (type.startsWith("Expr")) {
+          return "writeExpr(" + value + ")";
+        } else if (type.startsWith("Stmt")) {
+          return "writeStmt(" + value + ")";
+        } else if (type.startsWith("List<Stmt")) {
+          return "writeStmts(" + value + ")";
+        }
+        throw new IllegalArgumentException("No serialization for " + type);
+    }
+  }
+
+  private static String readCall(String type) {
+    switch (type) {
+      case "int":
+        return "readVarInt()";
+      case "boolean":
+        return "in.readBoolean()";
+      case "boolean[]":
+        return "readBooleans()";
+      case "Object":
+        return "readValue()";
+      case "Token":
+        return "readToken()";
+      case "List<Token>":
+        return "readTokens()";
+      case "List<Expr>":
+        return "readExprs()";
+      case "Expr":
+        return "readExpr()";
+      case "Stmt":
+        return "readStmt()";
+      default:
+        if (type.startsWith("Expr.")) {
+          return "(" + type + ")readExpr()";
+        } else if (type.startsWith("Stmt.")) {
+          return "(" + type + ")readStmt()";
+        } else if (type.startsWith("List<Stmt")) {
+          return "readStmts(" + type.substring("List<".length(), type.length() - 1) + ".class)";
+        }
+        throw new IllegalArgumentException("No serialization for " + type);
+    }
+  }
 }
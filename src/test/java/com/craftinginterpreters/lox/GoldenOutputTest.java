@@ -0,0 +1,99 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Runs every sample script through Lox, the way it's run from the command line, and compares what it prints to
+ * stdout and stderr, along with its exit status, against src/test/resources/expected. Each configuration has to give
+ * exactly the output the original tree walker gave, so none of the optimizations may change what a script does.
+ *
+ * Every script runs in a JVM of its own, since the JIT threshold is only read once per JVM.
+ */
+public class GoldenOutputTest {
+  private static final Path EXPECTED = Paths.get("src", "test", "resources", "expected");
+  private static final long TIMEOUT_SECONDS = 60;
+
+  @Test
+  public void treeWalker() throws Exception {
+    check(Collections.emptyList(), Collections.emptyList());
+  }
+
+  @Test
+  public void vm() throws Exception {
+    check(Collections.emptyList(), Collections.singletonList("--engine=vm"));
+  }
+
+  // every function is compiled on its first call, so the compiled code runs everything the tree walker would
+  @Test
+  public void treeWalkerJittingEverything() throws Exception {
+    check(Collections.singletonList("-Dscream.jit.threshold=1"), Collections.emptyList());
+  }
+
+  private static void check(List<String> jvmOptions, List<String> arguments) throws Exception {
+    List<String> failures = new ArrayList<>();
+    for (Path sample : Samples.all()) {
+      String relative = Samples.DIRECTORY.relativize(sample).toString();
+      Path expectedPath = EXPECTED.resolve(relative.replaceAll("\\.scream$", ".out"));
+      String actual = run(sample, jvmOptions, arguments);
+      String expected;
+      try {
+        expected = new String(Files.readAllBytes(expectedPath), StandardCharsets.UTF_8);
+      } catch (NoSuchFileException e) {
+        failures.add(relative + ": NO EXPECTED OUTPUT IN " + expectedPath + ", IT PRINTED\n" + actual);
+        continue;
+      }
+      if (!expected.equals(actual)) {
+        failures.add(relative + ": EXPECTED\n" + expected + "BUT GOT\n" + actual);
+      }
+    }
+    if (!failures.isEmpty()) {
+      fail(failures.size() + " SAMPLES DIFFER WITH " + jvmOptions + " " + arguments + "\n"
+        + String.join("\n", failures));
+    }
+  }
+
+  // what the script printed to stdout and stderr, in the order it printed it, then its exit status
+  private static String run(Path sample, List<String> jvmOptions, List<String> arguments) throws Exception {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.addAll(jvmOptions);
+    command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), Lox.class.getName()));
+    command.addAll(arguments);
+    command.add(sample.toString());
+
+    Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+    String output = read(process.getInputStream());
+    if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+      process.destroyForcibly();
+      return output + "TIMED OUT\n";
+    }
+    return output.replace(System.lineSeparator(), "\n") + "EXIT " + process.exitValue() + "\n";
+  }
+
+  private static String read(InputStream in) throws IOException {
+    try (InputStream input = in) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+        out.write(buffer, 0, read);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The sample scripts in src/main/resources/scream-scripts, which the tests run from the project directory.
+ */
+final class Samples {
+  static final Path DIRECTORY = Paths.get("src", "main", "resources", "scream-scripts");
+
+  private Samples() {
+  }
+
+  static List<Path> all() throws IOException {
+    try (Stream<Path> paths = Files.walk(DIRECTORY)) {
+      return paths.filter(path -> path.toString().endsWith(".scream")).sorted().collect(Collectors.toList());
+    }
+  }
+}
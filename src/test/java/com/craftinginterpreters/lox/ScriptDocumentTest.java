@@ -0,0 +1,103 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ScriptDocumentTest {
+  private static final int EDITS_PER_SCRIPT = 300;
+  // the kinds of text edits are made of, including ones that open comments and strings or break declarations apart
+  private static final String[] REPLACEMENTS = {
+    "", " ", "\n", "\n\n", ";", "{", "}", "(", ")", "+", "\"", "\"AB\"", "//", "/*", "*/", "x", "1.5", "CLASS",
+    "IF (", "ELSE", "PRINT 1", "VAR X = 1;", "FUN F() { RETURN 1; }"
+  };
+
+  @Test
+  public void movedDeclarationsAreOnTheirNewLines() throws IOException {
+    ScriptDocument document = new ScriptDocument("PRINT 1;\nVAR A = 2;\nVAR B = ;\n");
+    document.edit(0, 0, "\n\n");
+
+    assertEquals(Collections.singletonList("[LINE 5] ERROR AT ';': EXPECT EXPRESSION!"), document.errors());
+    Stmt.Var var = (Stmt.Var)document.statements().get(1);
+    assertEquals(4, var.name.line);
+    assertSameTree(fresh(document.text()), document.statements());
+  }
+
+  @Test
+  public void declarationsThatFailedToParseAreLeftOut() {
+    ScriptDocument document = new ScriptDocument("VAR = 1;\nPRINT 1;\n");
+
+    assertEquals(1, document.statements().size());
+    assertEquals(Stmt.Print.class, document.statements().get(0).getClass());
+  }
+
+  // random edits all over every sample script, each one checked against parsing the edited text from scratch
+  @Test
+  public void editsMatchAFreshParse() throws IOException {
+    Random random = new Random(42);
+    for (Path path : Samples.all()) {
+      String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+      ScriptDocument document = new ScriptDocument(text);
+      for (int i = 0; i < EDITS_PER_SCRIPT; i++) {
+        int offset = random.nextInt(text.length() + 1);
+        int length = random.nextInt(3) == 0 ? 0 : random.nextInt(Math.min(20, text.length() - offset) + 1);
+        String replacement = REPLACEMENTS[random.nextInt(REPLACEMENTS.length)];
+        text = text.substring(0, offset) + replacement + text.substring(offset + length);
+        document.edit(offset, length, replacement);
+
+        String edit = path + ", EDIT " + i;
+        assertEquals(edit, text, document.text());
+        List<String> errors = new ArrayList<>();
+        List<Stmt> statements = parse(text, errors);
+        // a whole parse reports a declaration's scan errors before its parse errors, the document reports them in the
+        // order they were found
+        List<String> documentErrors = new ArrayList<>(document.errors());
+        Collections.sort(errors);
+        Collections.sort(documentErrors);
+        assertEquals(edit, errors, documentErrors);
+        // only every few edits, so moves pile up in between
+        if (i % 10 == 9) {
+          assertSameTree(statements, document.statements());
+        }
+      }
+    }
+  }
+
+  private static List<Stmt> fresh(String text) {
+    return parse(text, new ArrayList<>());
+  }
+
+  private static List<Stmt> parse(String text, List<String> errors) {
+    ScreamContext context = new ScreamContext(System.out, System.err,
+      (line, where, message) -> errors.add(ScreamContext.format(line, where, message)));
+    List<Stmt> statements = new ArrayList<>(new Parser(new Scanner(text, context), context).parse());
+    statements.removeIf(Objects::isNull);
+    return statements;
+  }
+
+  // compared through AstSerializer, which writes out every token along with its line
+  private static void assertSameTree(List<Stmt> expected, List<Stmt> actual) throws IOException {
+    assertArrayEquals(serialize(expected), serialize(actual));
+  }
+
+  private static byte[] serialize(List<Stmt> statements) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    AstSerializer.write(out, statements);
+    out.flush();
+    return bytes.toByteArray();
+  }
+}